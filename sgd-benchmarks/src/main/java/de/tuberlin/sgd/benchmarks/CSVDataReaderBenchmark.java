@@ -0,0 +1,132 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.CSVDataReader;
+import de.tuberlin.sgd.core.DVectorFrame;
+import de.tuberlin.sgd.core.DVectorFrameFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSVDataReader.readCSV of a synthetic file written once per trial, with the
+ * number of rows estimated from the file size and given exactly, and on a
+ * single thread as the baseline for the chunked parallel read of large files,
+ * and with only every fourth column selected, all without the sidecar cache.
+ * A cached read and DVectorFrameFile.read of the same frame in the binary
+ * format show what a converted file saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVDataReaderBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numSamples;
+
+    @Param({"4", "64"})
+    public int numFeatures;
+
+    @Param({"1.0", "0.1"})
+    public double density;
+
+    private File csvFile;
+
+    private File binaryFile;
+
+    private CSVDataReader.Options parse;
+
+    private CSVDataReader.Options parseExpectedRows;
+
+    private CSVDataReader.Options parseSingleThreaded;
+
+    private CSVDataReader.Options projection;
+
+    private CSVDataReader.Options cached;
+
+    @Setup
+    public void setup() {
+        csvFile = SyntheticData.csv(SyntheticData.frame(numSamples, numFeatures, density), numSamples);
+        final String[] fields = SyntheticData.fields(numFeatures);
+        parse = uncached(fields);
+        parseExpectedRows = uncached(fields);
+        parseExpectedRows.setExpectedRows(numSamples);
+        parseSingleThreaded = uncached(fields);
+        parseSingleThreaded.setNumThreads(1);
+
+        final int[] columnIndices = new int[fields.length / 4];
+        final String[] projectedFields = new String[columnIndices.length];
+        for (int c = 0; c < columnIndices.length; ++c) {
+            columnIndices[c] = 4 * c;
+            projectedFields[c] = fields[4 * c];
+        }
+        projection = uncached(projectedFields);
+        projection.setColumnIndices(columnIndices);
+
+        cached = new CSVDataReader.Options();
+        cached.setFields(fields);
+        binaryFile = new File(csvFile.getPath() + ".bin");
+        DVectorFrameFile.write(CSVDataReader.readCSV(csvFile.getPath(), cached), binaryFile.getPath());
+    }
+
+    private static CSVDataReader.Options uncached(final String[] fields) {
+        final CSVDataReader.Options options = new CSVDataReader.Options();
+        options.setFields(fields);
+        options.setCache(false);
+        return options;
+    }
+
+    @TearDown
+    public void tearDown() {
+        final File[] sidecars = csvFile.getParentFile().listFiles();
+        for (final File sidecar : sidecars == null ? new File[0] : sidecars)
+            if (sidecar.getName().startsWith(csvFile.getName() + ".") && sidecar.getName().endsWith(".dvcf"))
+                sidecar.delete();
+        csvFile.delete();
+        binaryFile.delete();
+    }
+
+    @Benchmark
+    public DVectorFrame readCSV() {
+        return CSVDataReader.readCSV(csvFile.getPath(), parse);
+    }
+
+    @Benchmark
+    public DVectorFrame readCSVExpectedRows() {
+        return CSVDataReader.readCSV(csvFile.getPath(), parseExpectedRows);
+    }
+
+    @Benchmark
+    public DVectorFrame readCSVSingleThreaded() {
+        return CSVDataReader.readCSV(csvFile.getPath(), parseSingleThreaded);
+    }
+
+    @Benchmark
+    public DVectorFrame readCSVProjected() {
+        return CSVDataReader.readCSV(csvFile.getPath(), projection);
+    }
+
+    @Benchmark
+    public DVectorFrame readCSVCached() {
+        return CSVDataReader.readCSV(csvFile.getPath(), cached);
+    }
+
+    @Benchmark
+    public DVectorFrame readBinary() {
+        return DVectorFrameFile.read(binaryFile.getPath());
+    }
+}
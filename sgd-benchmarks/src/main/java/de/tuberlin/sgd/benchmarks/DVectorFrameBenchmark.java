@@ -0,0 +1,66 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.DVectorFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A row-wise scan of a frame through DVectorFrame.getVec, the access
+ * pattern of the frame-based training loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DVectorFrameBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numSamples;
+
+    @Param({"4", "64"})
+    public int numFeatures;
+
+    @Param({"1.0", "0.1"})
+    public double density;
+
+    private DVectorFrame frame;
+
+    private String[] fields;
+
+    @Setup
+    public void setup() {
+        frame = SyntheticData.frame(numSamples, numFeatures, density);
+        fields = SyntheticData.fields(numFeatures);
+    }
+
+    @Benchmark
+    public double getVecByIndex() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; ++i)
+            for (int j = 0; j < numFeatures; ++j)
+                sum += frame.getVec(j).elements[i];
+        return sum;
+    }
+
+    @Benchmark
+    public double getVecByName() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; ++i)
+            for (int j = 0; j < numFeatures; ++j)
+                sum += frame.getVec(fields[j]).elements[i];
+        return sum;
+    }
+}
@@ -0,0 +1,54 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.old.v1.FeatureVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The legacy FeatureVector.dot of synthetic vectors. RealFeature equality
+ * includes the value, so each vector is dotted with itself to make every
+ * feature match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureVectorBenchmark {
+
+    @Param({"1000", "10000"})
+    public int numSamples;
+
+    @Param({"64", "1024"})
+    public int numFeatures;
+
+    @Param({"1.0", "0.1"})
+    public double density;
+
+    private FeatureVector[] examples;
+
+    @Setup
+    public void setup() {
+        examples = SyntheticData.featureVectors(numSamples, numFeatures, density);
+    }
+
+    @Benchmark
+    public double dot() {
+        double sum = 0.0;
+        for (final FeatureVector example : examples)
+            sum += example.dot(example);
+        return sum;
+    }
+}
@@ -0,0 +1,133 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.DVectorFrame;
+import de.tuberlin.sgd.core.RecordAccessors;
+import de.tuberlin.sgd.core.RecordBuffer;
+import de.tuberlin.sgd.core.Types;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A row-wise dot product over records of label and features in a
+ * RecordBuffer, with precomputed field offsets, with selectors and with
+ * generated accessors, against the same scan over the columns of a frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordBufferBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numSamples;
+
+    @Param({"4", "64"})
+    public int numFeatures;
+
+    private DVectorFrame frame;
+
+    private RecordBuffer records;
+
+    private int[] featureOffsets;
+
+    private int[][] featureSelectors;
+
+    private RecordAccessors.DoubleField label;
+
+    private RecordAccessors.DoubleRowReader featureReader;
+
+    private double[] x;
+
+    private double[] w;
+
+    @Setup
+    public void setup() {
+        frame = SyntheticData.frame(numSamples, numFeatures, 1.0);
+        Types.TypeInfoBuilder features = Types.TypeInfoBuilder.newType()
+                .add(Types.PrimitiveType.DOUBLE)
+                .open();
+        for (int j = 0; j < numFeatures; ++j)
+            features = features.add(Types.PrimitiveType.DOUBLE);
+        records = RecordBuffer.allocate(features.close().build(), numSamples);
+
+        featureOffsets = new int[numFeatures];
+        featureSelectors = new int[numFeatures][];
+        for (int j = 0; j < numFeatures; ++j) {
+            featureSelectors[j] = new int[] {1, j};
+            featureOffsets[j] = records.getFieldOffset(featureSelectors[j]);
+        }
+        for (int i = 0; i < numSamples; ++i) {
+            records.putDouble(i, 0, frame.getVec(numFeatures).elements[i]);
+            for (int j = 0; j < numFeatures; ++j)
+                records.putDouble(i, featureOffsets[j], frame.getVec(j).elements[i]);
+        }
+        label = RecordAccessors.doubleField(records.type, new int[] {0});
+        featureReader = RecordAccessors.doubleRowReader(records.type, new int[] {1});
+        x = new double[numFeatures];
+        w = new double[numFeatures];
+        for (int j = 0; j < numFeatures; ++j)
+            w[j] = 1.0 / (j + 1);
+    }
+
+    @Benchmark
+    public double scanByOffset() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; ++i) {
+            double p = -records.getDouble(i, 0);
+            for (int j = 0; j < numFeatures; ++j)
+                p += w[j] * records.getDouble(i, featureOffsets[j]);
+            sum += p;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double scanBySelector() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; ++i) {
+            double p = -records.getDouble(i, 0);
+            for (int j = 0; j < numFeatures; ++j)
+                p += w[j] * records.getDouble(i, featureSelectors[j]);
+            sum += p;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double scanGenerated() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; ++i) {
+            double p = -records.get(i, label);
+            records.read(i, featureReader, x);
+            for (int j = 0; j < numFeatures; ++j)
+                p += w[j] * x[j];
+            sum += p;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double scanFrame() {
+        double sum = 0.0;
+        for (int i = 0; i < numSamples; ++i) {
+            double p = -frame.getVec(numFeatures).elements[i];
+            for (int j = 0; j < numFeatures; ++j)
+                p += w[j] * frame.getVec(j).elements[i];
+            sum += p;
+        }
+        return sum;
+    }
+}
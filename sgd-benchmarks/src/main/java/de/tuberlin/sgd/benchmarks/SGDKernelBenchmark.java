@@ -0,0 +1,98 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.DVectorFrame;
+import de.tuberlin.sgd.core.SGD;
+import de.tuberlin.sgd.core.SGDKernels;
+import de.tuberlin.sgd.core.SGDOptimizers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One epoch of the squared loss with plain SGD over a dense synthetic frame:
+ * the frame-based loop the kernels replaced, the kernel of the loss and the
+ * kernel compiled for the number of features. Beyond
+ * SGDKernelCompiler.MAX_FEATURES nothing is compiled and compiled runs the
+ * kernel of the loss, as a fit would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SGDKernelBenchmark {
+
+    private static final double ALPHA = 0.001;
+
+    @Param({"10000"})
+    public int numSamples;
+
+    @Param({"4", "32", "256"})
+    public int numFeatures;
+
+    private DVectorFrame frame;
+
+    private int[] X_indices;
+
+    private SGD.ConvexLossFunction lossFunction;
+
+    private SGD.LearningRateSchedule rate;
+
+    private SGDKernels.Columns columns;
+
+    private SGDKernels.Kernel kernel;
+
+    private SGDKernels.Kernel compiled;
+
+    private double[] w;
+
+    @Setup
+    public void setup() {
+        frame = SyntheticData.frame(numSamples, numFeatures, 1.0);
+        X_indices = SyntheticData.featureIndices(numFeatures);
+        lossFunction = new SGD.SquaredLossFunction();
+        rate = SGD.LearningRateSchedule.constant(ALPHA);
+        columns = SGDKernels.Columns.resolve(frame, X_indices, numFeatures, numSamples);
+        kernel = SGDKernels.forLoss(lossFunction);
+        compiled = SGDKernels.compiledForLoss(lossFunction, SGDOptimizers.PLAIN, columns);
+        w = new double[numFeatures + 1];
+    }
+
+    @Benchmark
+    public double[] frameLoop() {
+        for (int i = 0; i < numSamples; ++i) {
+            int m = 1;
+            double p = w[0];
+            for (int j : X_indices)
+                p += frame.getVec(j).elements[i] * w[m++];
+            w[0] = w[0] - ALPHA * lossFunction.dloss(p, frame.getVec(numFeatures).elements[i]);
+            int n = 1;
+            for (int k : X_indices) {
+                w[n] = w[n] - ALPHA * lossFunction.dloss(p, frame.getVec(numFeatures).elements[i]) * frame.getVec(k).elements[i];
+                n++;
+            }
+        }
+        return w;
+    }
+
+    @Benchmark
+    public double kernel() {
+        return kernel.epoch(w, columns, 0, numSamples, rate, SGDOptimizers.PLAIN);
+    }
+
+    @Benchmark
+    public double compiled() {
+        return compiled.epoch(w, columns, 0, numSamples, rate, SGDOptimizers.PLAIN);
+    }
+}
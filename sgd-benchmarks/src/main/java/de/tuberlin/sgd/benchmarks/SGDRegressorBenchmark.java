@@ -0,0 +1,99 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.DVector;
+import de.tuberlin.sgd.core.DVectorFrame;
+import de.tuberlin.sgd.core.FloatDVector;
+import de.tuberlin.sgd.core.OffHeapDVector;
+import de.tuberlin.sgd.core.QuantizedDVector;
+import de.tuberlin.sgd.core.SGD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One epoch of SGDRegressor.fit over a synthetic frame, on the heap, copied
+ * into OffHeapDVectors and with the features rounded to FloatDVectors or
+ * quantized to 16 bits, with and without compiled kernels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SGDRegressorBenchmark {
+
+    @Param({"1000", "100000"})
+    public int numSamples;
+
+    @Param({"4", "64"})
+    public int numFeatures;
+
+    @Param({"1.0", "0.1"})
+    public double density;
+
+    @Param({"true", "false"})
+    public boolean compileKernels;
+
+    private DVectorFrame frame;
+
+    private DVectorFrame offHeapFrame;
+
+    private DVectorFrame floatFrame;
+
+    private DVectorFrame quantizedFrame;
+
+    private int[] X_indices;
+
+    private SGD.SGDRegressor regressor;
+
+    @Setup
+    public void setup() {
+        frame = SyntheticData.frame(numSamples, numFeatures, density);
+        X_indices = SyntheticData.featureIndices(numFeatures);
+        offHeapFrame = new DVectorFrame(frame.getNames());
+        for (int c = 0; c < frame.getNumberOfVecs(); ++c)
+            offHeapFrame.setColumn(c, OffHeapDVector.copyOf(frame.getVec(c)));
+        floatFrame = new DVectorFrame(frame.getNames());
+        for (int c = 0; c < numFeatures; ++c)
+            floatFrame.setColumn(c, FloatDVector.copyOf(frame.getVec(c)));
+        floatFrame.setColumn(numFeatures, frame.getVec(numFeatures));
+        quantizedFrame = new DVectorFrame(frame.getNames());
+        for (int c = 0; c < numFeatures; ++c)
+            quantizedFrame.setColumn(c, QuantizedDVector.quantize(frame.getVec(c), 16));
+        quantizedFrame.setColumn(numFeatures, frame.getVec(numFeatures));
+        regressor = new SGD.SGDRegressor();
+        regressor.setNumIterations(1);
+        regressor.setCompileKernels(compileKernels);
+    }
+
+    @Benchmark
+    public DVector fit() {
+        return regressor.fit(new DVector(numFeatures + 1), frame, X_indices, numFeatures, numSamples);
+    }
+
+    @Benchmark
+    public DVector fitOffHeap() {
+        return regressor.fit(new DVector(numFeatures + 1), offHeapFrame, X_indices, numFeatures, numSamples);
+    }
+
+    @Benchmark
+    public DVector fitFloat() {
+        return regressor.fit(new DVector(numFeatures + 1), floatFrame, X_indices, numFeatures, numSamples);
+    }
+
+    @Benchmark
+    public DVector fitQuantized() {
+        return regressor.fit(new DVector(numFeatures + 1), quantizedFrame, X_indices, numFeatures, numSamples);
+    }
+}
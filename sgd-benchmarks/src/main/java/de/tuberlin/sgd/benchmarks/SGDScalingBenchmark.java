@@ -0,0 +1,61 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.DVector;
+import de.tuberlin.sgd.core.DVectorFrame;
+import de.tuberlin.sgd.core.SGD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One epoch of Hogwild SGDRegressor.fit over a dense synthetic frame with a
+ * growing number of threads. The scaling efficiency of n threads is
+ * T(1) / (n * T(n)), 1 for perfect scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SGDScalingBenchmark {
+
+    @Param({"200000"})
+    public int numSamples;
+
+    @Param({"32"})
+    public int numFeatures;
+
+    @Param({"1", "2", "4", "8"})
+    public int numThreads;
+
+    private DVectorFrame frame;
+
+    private int[] X_indices;
+
+    private SGD.SGDRegressor regressor;
+
+    @Setup
+    public void setup() {
+        frame = SyntheticData.frame(numSamples, numFeatures, 1.0);
+        X_indices = SyntheticData.featureIndices(numFeatures);
+        regressor = new SGD.SGDRegressor();
+        regressor.setNumIterations(1);
+        regressor.setNumThreads(numThreads);
+    }
+
+    @Benchmark
+    public DVector fit() {
+        return regressor.fit(new DVector(numFeatures + 1), frame, X_indices, numFeatures, numSamples);
+    }
+}
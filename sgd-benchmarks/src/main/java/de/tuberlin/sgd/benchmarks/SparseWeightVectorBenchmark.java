@@ -0,0 +1,67 @@
+package de.tuberlin.sgd.benchmarks;
+
+import de.tuberlin.sgd.core.old.v1.FeatureVector;
+import de.tuberlin.sgd.core.old.v1.SparseWeightVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The legacy sparse weight vector, dot and scaledAdd over a set of
+ * synthetic feature vectors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparseWeightVectorBenchmark {
+
+    @Param({"1000", "10000"})
+    public int numSamples;
+
+    @Param({"64", "1024"})
+    public int numFeatures;
+
+    @Param({"1.0", "0.1"})
+    public double density;
+
+    private FeatureVector[] examples;
+
+    private SparseWeightVector weights;
+
+    @Setup
+    public void setup() {
+        examples = SyntheticData.featureVectors(numSamples, numFeatures, density);
+        // Touch every feature once, so dot does not only see default weights.
+        weights = new SparseWeightVector();
+        for (final FeatureVector example : examples)
+            weights.scaledAdd(example, 0.01);
+    }
+
+    @Benchmark
+    public double dot() {
+        double sum = 0.0;
+        for (final FeatureVector example : examples)
+            sum += weights.dot(example);
+        return sum;
+    }
+
+    @Benchmark
+    public SparseWeightVector scaledAdd() {
+        for (final FeatureVector example : examples)
+            weights.scaledAdd(example, 1e-6);
+        return weights;
+    }
+}
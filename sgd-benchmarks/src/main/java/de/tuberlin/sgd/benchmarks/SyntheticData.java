@@ -0,0 +1,123 @@
+package de.tuberlin.sgd.benchmarks;
+
+import com.google.common.base.Preconditions;
+import de.tuberlin.sgd.core.DVector;
+import de.tuberlin.sgd.core.DVectorFrame;
+import de.tuberlin.sgd.core.old.v1.FeatureVector;
+import de.tuberlin.sgd.core.old.v1.RealFeature;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic data for the benchmarks. The same arguments
+ * always produce the same data, so runs can be compared to each other.
+ */
+public final class SyntheticData {
+
+    // Disallow instantiation.
+    private SyntheticData() {}
+
+    public static final long SEED = 0x5EEDL;
+
+    /** Package of all generated legacy features, one instance so identity checks hold. */
+    public static final String FEATURE_PACKAGE = "de.tuberlin.sgd.benchmarks";
+
+    // ---------------------------------------------------
+
+    /** Names of the frame columns, the label is the last column. */
+    public static String[] fields(final int numFeatures) {
+        final String[] fields = new String[numFeatures + 1];
+        for (int j = 0; j < numFeatures; ++j)
+            fields[j] = "x" + j;
+        fields[numFeatures] = "y";
+        return fields;
+    }
+
+    /** Indices of the feature columns of a frame from {@link #frame}. */
+    public static int[] featureIndices(final int numFeatures) {
+        final int[] X_indices = new int[numFeatures];
+        for (int j = 0; j < numFeatures; ++j)
+            X_indices[j] = j;
+        return X_indices;
+    }
+
+    /**
+     * A frame of numFeatures feature columns and a label column. Each feature
+     * is non-zero with probability density, the label is a fixed linear
+     * function of the features plus a little noise.
+     */
+    public static DVectorFrame frame(final int numSamples, final int numFeatures, final double density) {
+        Preconditions.checkArgument(numSamples > 0 && numFeatures > 0);
+        Preconditions.checkArgument(density > 0.0 && density <= 1.0);
+        final Random rnd = new Random(SEED);
+        final DVectorFrame frame = new DVectorFrame(fields(numFeatures));
+        final DVector y = new DVector(numSamples);
+        for (int j = 0; j < numFeatures; ++j) {
+            final DVector x = new DVector(numSamples);
+            final double weight = rnd.nextGaussian();
+            for (int i = 0; i < numSamples; ++i) {
+                if (rnd.nextDouble() < density) {
+                    x.elements[i] = rnd.nextDouble();
+                    y.elements[i] += weight * x.elements[i];
+                }
+            }
+            frame.setVec(j, x);
+        }
+        for (int i = 0; i < numSamples; ++i)
+            y.elements[i] += 0.01 * rnd.nextGaussian();
+        frame.setVec(numFeatures, y);
+        return frame;
+    }
+
+    /** Writes a frame as a headerless CSV file, as read by CSVDataReader. */
+    public static File csv(final DVectorFrame frame, final int numSamples) {
+        try {
+            final File file = File.createTempFile("sgd-benchmark-", ".csv");
+            file.deleteOnExit();
+            final BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+            try {
+                final StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < numSamples; ++i) {
+                    sb.setLength(0);
+                    for (int j = 0; j < frame.getNumberOfVecs(); ++j) {
+                        if (j > 0)
+                            sb.append(',');
+                        sb.append(frame.getVec(j).elements[i]);
+                    }
+                    bw.write(sb.toString());
+                    bw.newLine();
+                }
+            } finally {
+                bw.close();
+            }
+            return file;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sparse legacy feature vectors over a vocabulary of numFeatures real
+     * features, each vector holds about density * numFeatures of them.
+     */
+    public static FeatureVector[] featureVectors(final int numVectors, final int numFeatures, final double density) {
+        Preconditions.checkArgument(numVectors > 0 && numFeatures > 0);
+        Preconditions.checkArgument(density > 0.0 && density <= 1.0);
+        final Random rnd = new Random(SEED);
+        final String[] identifiers = new String[numFeatures];
+        for (int j = 0; j < numFeatures; ++j)
+            identifiers[j] = "f" + j;
+        final FeatureVector[] vectors = new FeatureVector[numVectors];
+        for (int i = 0; i < numVectors; ++i) {
+            vectors[i] = new FeatureVector();
+            for (int j = 0; j < numFeatures; ++j)
+                if (rnd.nextDouble() < density)
+                    vectors[i].addFeature(new RealFeature(FEATURE_PACKAGE, identifiers[j], rnd.nextDouble()));
+        }
+        return vectors;
+    }
+}
@@ -1,50 +1,755 @@
 package de.tuberlin.sgd.core;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Reads a CSV file of numbers into a DVectorFrame. The file is
+ * memory-mapped and scanned byte by byte, the cells are parsed in place and
+ * go straight into primitive column buffers, so no String, boxed Double or
+ * split array is created per cell. Large files are split into chunks at row
+ * boundaries which are parsed in parallel and stitched together in order.
+ * A header row and a selection of columns can be given in Options, cells of
+ * columns which are not selected are skipped without being parsed. Columns
+ * are read into DVectors, or into FloatDVectors if Options asks for FLOAT32,
+ * parsed straight into floats. Columns asked for as INT16 or INT8 are parsed
+ * into floats relative to the first value of a chunk and then quantized to
+ * QuantizedDVectors with the range of all of their rows.
+ *
+ * Unless disabled in Options, a parsed file is cached in the binary format of
+ * DVectorFrameFile next to it, in a sidecar named after a hash of the path,
+ * the size and modification time of the file and of the selected fields. A
+ * changed file gets a new name, so a stale sidecar is never read, and it is
+ * replaced once the file has been parsed again.
+ */
 public class CSVDataReader {
 
+    /** Files are mapped in windows of this size, a single row must fit into one. */
+    static final long MAP_WINDOW_SIZE = 1L << 30;
+
+    /** The number of bytes sampled from the head of a file to estimate its number of rows. */
+    static final int ROW_ESTIMATE_SAMPLE_SIZE = 1 << 16;
+
+    /** Files smaller than this are read by a single thread. */
+    static final long PARALLEL_READ_THRESHOLD = 1L << 24;
+
+    static final String CACHE_SUFFIX = ".dvcf";
+
+    private static final AtomicLong cacheHits = new AtomicLong();
+
+    private static final AtomicLong cacheMisses = new AtomicLong();
+
+    /** The number of reads served from a sidecar. */
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /** The number of cached reads which had to parse the file. */
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
     public static DVectorFrame readCSV(final String csvFile, final String[] fields) {
+        return readCSV(csvFile, fields, 0);
+    }
+
+    /**
+     * Reads the file with the column buffers presized to expectedRows. If it is
+     * 0 the number of rows is estimated from the file size and the length of
+     * the first rows. With an exact expectation the buffers of a single threaded
+     * read become the columns of the frame without a copy.
+     */
+    public static DVectorFrame readCSV(final String csvFile, final String[] fields, final int expectedRows) {
+        return readCSV(csvFile, fields, expectedRows, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads the file with up to numThreads threads. Files of at least
+     * PARALLEL_READ_THRESHOLD bytes are split into one chunk per thread, each
+     * ending at a newline, every chunk is parsed into its own column buffers
+     * and the chunks are copied into the columns in file order.
+     */
+    public static DVectorFrame readCSV(final String csvFile, final String[] fields, final int expectedRows, final int numThreads) {
         Preconditions.checkNotNull(fields);
+        final Options options = new Options();
+        options.setFields(fields);
+        options.setExpectedRows(expectedRows);
+        options.setNumThreads(numThreads);
+        return readCSV(csvFile, options);
+    }
+
+    public static DVectorFrame readCSV(final String csvFile, final Options options) {
         Preconditions.checkNotNull(csvFile);
-        final DVectorFrame frame = new DVectorFrame(fields);
-        final String cvsSplitBy = ",";
-        final List<Double>[] data = new ArrayList[fields.length];
-        BufferedReader br = null;
+        Preconditions.checkNotNull(options);
+        if (!options.cache)
+            return parseCSV(csvFile, options);
+        final Path source = Paths.get(csvFile).toAbsolutePath().normalize();
+        final String key = options.cacheKey(source);
+        final Path sidecar;
         try {
-            String line = "";
-            br = new BufferedReader(new FileReader(csvFile));
-            while ((line = br.readLine()) != null) {
-                final String[] example = line.split(cvsSplitBy);
-                int i = 0;
-                for (final String f : example) {
-                    if (data[i] == null)
-                        data[i] = new ArrayList<>();
-                    data[i++].add(Double.valueOf(f));
-                }
+            final BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            final long version = Hashing.murmur3_128().newHasher()
+                    .putLong(attributes.size())
+                    .putLong(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                    .hash().asLong();
+            sidecar = source.resolveSibling(source.getFileName() + "." + key + "-" + Long.toHexString(version) + CACHE_SUFFIX);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (Files.isRegularFile(sidecar)) {
+            try {
+                final DVectorFrame frame = DVectorFrameFile.read(sidecar.toString());
+                cacheHits.incrementAndGet();
+                return frame;
+            } catch (IllegalStateException e) {
+                // A damaged sidecar is replaced below.
             }
-            int i = 0;
-            for (final String f : fields) {
-                final DVector v = DVector.createFrom(data[i++]);
-                frame.setVec(f, v);
+        }
+        cacheMisses.incrementAndGet();
+        final DVectorFrame frame = parseCSV(csvFile, options);
+        writeSidecar(frame, source, sidecar, key);
+        return frame;
+    }
+
+    /**
+     * Writes the sidecar through a temporary file, so concurrent readers never
+     * see a partial one, and deletes the sidecars of older versions of the
+     * file. The cache is best effort, e.g. in a read-only directory nothing
+     * is cached.
+     */
+    private static void writeSidecar(final DVectorFrame frame, final Path source, final Path sidecar, final String key) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(source.getParent(), sidecar.getFileName().toString(), ".tmp");
+            DVectorFrameFile.write(frame, tmp.toString());
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            try (final DirectoryStream<Path> stale = Files.newDirectoryStream(source.getParent(), source.getFileName() + "." + key + "-*" + CACHE_SUFFIX)) {
+                for (final Path path : stale)
+                    if (!path.equals(sidecar))
+                        Files.deleteIfExists(path);
             }
-            return frame;
-        } catch (Exception e) {
-            throw new IllegalStateException(e);
+        } catch (IOException | IllegalStateException e) {
+            // Not cached.
         } finally {
-            if (br != null) {
+            if (tmp != null) {
                 try {
-                    br.close();
+                    Files.deleteIfExists(tmp);
                 } catch (IOException e) {
+                    // Left behind.
+                }
+            }
+        }
+    }
+
+    private static DVectorFrame parseCSV(final String csvFile, final Options options) {
+        return parseCSV(csvFile, options, MAP_WINDOW_SIZE, PARALLEL_READ_THRESHOLD);
+    }
+
+    /**
+     * Parses the file in windows of windowSize bytes, in chunks if it has at
+     * least parallelThreshold bytes. Small ones cut rows in tests.
+     */
+    static DVectorFrame parseCSV(final String csvFile, final Options options, final long windowSize, final long parallelThreshold) {
+        try (final FileChannel channel = FileChannel.open(Paths.get(csvFile), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long dataStart = options.header ? nextRowStart(channel, Math.min(1, size)) : 0;
+            final Projection projection = options.project(options.header ? readHeader(channel, dataStart) : null);
+            final int numRows = options.expectedRows > 0 ? options.expectedRows : estimateRows(channel);
+            final RowParser[] parsers;
+            if (options.numThreads == 1 || size - dataStart < parallelThreshold) {
+                parsers = new RowParser[] { new RowParser(projection, numRows) };
+                parseRange(channel, dataStart, size, parsers[0], windowSize, csvFile);
+            } else {
+                parsers = parseChunks(channel, dataStart, projection, numRows, options.numThreads, windowSize, csvFile);
+            }
+            return toFrame(projection, parsers, csvFile);
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the column names from the header row ending before dataStart. The
+     * names are trimmed and unquoted, a UTF-8 byte order mark is dropped.
+     */
+    static String[] readHeader(final FileChannel channel, final long dataStart) throws IOException {
+        Preconditions.checkState(dataStart <= MAP_WINDOW_SIZE, "header longer than the map window");
+        final ByteBuffer buffer = ByteBuffer.allocate((int) dataStart);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0);
+        String line = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        if (line.startsWith("\uFEFF"))
+            line = line.substring(1);
+        final String[] names = line.trim().split(",", -1);
+        for (int i = 0; i < names.length; ++i) {
+            String name = names[i].trim();
+            if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\""))
+                name = name.substring(1, name.length() - 1);
+            names[i] = name;
+        }
+        return names;
+    }
+
+    /**
+     * Parses the rows in [from, to) of the file, which must start at a row,
+     * mapping it in windows of at most windowSize bytes.
+     */
+    static void parseRange(final FileChannel channel,
+                           final long from,
+                           final long to,
+                           final RowParser parser,
+                           final long windowSize,
+                           final String csvFile) throws IOException {
+        long position = from;
+        while (position < to) {
+            final long length = Math.min(windowSize, to - position);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            final boolean last = position + length == to;
+            final int end = parser.parse(buffer, 0, (int) length, last);
+            // A row cut by the window boundary is parsed again from the next window.
+            Preconditions.checkState(last || end > 0, "row longer than the map window in " + csvFile);
+            position += last ? length : end;
+        }
+    }
+
+    private static RowParser[] parseChunks(final FileChannel channel,
+                                           final long dataStart,
+                                           final Projection projection,
+                                           final int numRows,
+                                           final int numChunks,
+                                           final long windowSize,
+                                           final String csvFile) throws IOException {
+
+        final long size = channel.size();
+        final long[] bounds = new long[numChunks + 1];
+        bounds[0] = dataStart;
+        bounds[numChunks] = size;
+        for (int k = 1; k < numChunks; ++k)
+            bounds[k] = Math.max(bounds[k - 1], nextRowStart(channel, dataStart + (size - dataStart) * k / numChunks));
+
+        final RowParser[] parsers = new RowParser[numChunks];
+        final ForkJoinPool pool = new ForkJoinPool(numChunks);
+        try {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (int k = 0; k < numChunks; ++k) {
+                final int chunk = k;
+                tasks.add(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        // The buffers are sized by the share of bytes, so they are touched by the parsing thread only.
+                        final long expected = (long) ((double) numRows * (bounds[chunk + 1] - bounds[chunk]) / size) + 1;
+                        parsers[chunk] = new RowParser(projection, (int) Math.min(expected, Integer.MAX_VALUE - 8));
+                        parseRange(channel, bounds[chunk], bounds[chunk + 1], parsers[chunk], windowSize, csvFile);
+                        return null;
+                    }
+                });
+            }
+            final List<Future<Void>> futures = pool.invokeAll(tasks);
+            // The rows of a chunk are numbered from 0, an error is reported by its row in the file.
+            long rowsBefore = 0;
+            for (int k = 0; k < numChunks; ++k) {
+                try {
+                    futures.get(k).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof MalformedRowException) {
+                        final MalformedRowException malformed = (MalformedRowException) e.getCause();
+                        throw new MalformedRowException(rowsBefore + malformed.row, malformed.problem);
+                    }
                     throw new IllegalStateException(e);
                 }
+                rowsBefore += parsers[k].numRows;
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+        return parsers;
+    }
+
+    /**
+     * Returns the start of the first row at or after position, i.e. position
+     * itself if it follows a newline, else the position after the next one.
+     */
+    static long nextRowStart(final FileChannel channel, final long position) throws IOException {
+        if (position == 0)
+            return 0;
+        final long size = channel.size();
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        long offset = position - 1;
+        while (offset < size) {
+            buffer.clear();
+            final int n = channel.read(buffer, offset);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; ++i)
+                if (buffer.get(i) == '\n')
+                    return offset + i + 1;
+            offset += n;
+        }
+        return size;
+    }
+
+    private static DVectorFrame toFrame(final Projection projection, final RowParser[] parsers, final String csvFile) {
+        final String[] fields = projection.fields;
+        long numRows = 0;
+        for (final RowParser parser : parsers)
+            numRows += parser.numRows;
+        Preconditions.checkState(numRows > 0, "no rows in " + csvFile);
+        Preconditions.checkState(numRows <= Integer.MAX_VALUE - 8, "too many rows in " + csvFile);
+        final DVectorFrame frame = new DVectorFrame(fields);
+        for (int c = 0; c < fields.length; ++c) {
+            if (projection.types[c] == DVectorFrameFile.ColumnType.FLOAT32) {
+                if (parsers.length == 1) {
+                    frame.setColumn(fields[c], parsers[0].floatColumns[c].toFloatDVector());
+                } else {
+                    final float[] column = new float[(int) numRows];
+                    int offset = 0;
+                    for (final RowParser parser : parsers) {
+                        parser.floatColumns[c].copyTo(column, offset);
+                        offset += parser.numRows;
+                    }
+                    frame.setColumn(fields[c], FloatDVector.wrap(column));
+                }
+            } else if (projection.types[c].isQuantized()) {
+                final DColumn[] chunks = new DColumn[parsers.length];
+                for (int p = 0; p < parsers.length; ++p)
+                    chunks[p] = parsers[p].floatColumns[c];
+                frame.setColumn(fields[c], QuantizedDVector.quantize(chunks, projection.types[c].valueSize * Byte.SIZE));
+            } else if (parsers.length == 1) {
+                frame.setVec(fields[c], parsers[0].columns[c].toDVector());
+            } else {
+                final double[] column = new double[(int) numRows];
+                int offset = 0;
+                for (final RowParser parser : parsers) {
+                    parser.columns[c].copyTo(column, offset);
+                    offset += parser.numRows;
+                }
+                frame.setVec(fields[c], DVector.wrap(column));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Estimates the number of rows from the newlines in the head of the file,
+     * a little high, since a trim is cheaper than growing a column.
+     */
+    static int estimateRows(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int sampleSize = (int) Math.min(ROW_ESTIMATE_SAMPLE_SIZE, size);
+        final ByteBuffer sample = ByteBuffer.allocate(sampleSize);
+        while (sample.hasRemaining() && channel.read(sample, sample.position()) >= 0);
+        int numNewlines = 0;
+        for (int i = 0; i < sample.position(); ++i)
+            if (sample.get(i) == '\n')
+                ++numNewlines;
+        if (numNewlines == 0)
+            return 1;
+        final long estimate = size * numNewlines / sample.position() * 17 / 16 + 1;
+        return (int) Math.min(estimate, Integer.MAX_VALUE - 8);
+    }
+
+    // ---------------------------------------------------
+
+    /**
+     * What to read from a file. By default the file has no header and all of
+     * its columns are read into the fields by position. With a header the
+     * fields default to the column names. Columns are selected either by name,
+     * which needs a header, or by index, and become the fields in the order of
+     * the selection.
+     */
+    public static final class Options {
+
+        private boolean header;
+
+        private String[] fields;
+
+        private String[] columnNames;
+
+        private int[] columnIndices;
+
+        private int expectedRows;
+
+        private int numThreads = Runtime.getRuntime().availableProcessors();
+
+        private boolean cache = true;
+
+        private DVectorFrameFile.ColumnType columnType = DVectorFrameFile.ColumnType.FLOAT64;
+
+        private final SortedMap<String, DVectorFrameFile.ColumnType> fieldColumnTypes = new TreeMap<>();
+
+        public void setHeader(final boolean header) {
+            this.header = header;
+        }
+
+        public void setFields(final String[] fields) {
+            Preconditions.checkArgument(fields == null || fields.length > 0);
+            this.fields = fields;
+        }
+
+        public void setColumnNames(final String... columnNames) {
+            Preconditions.checkArgument(columnNames == null || columnNames.length > 0);
+            this.columnNames = columnNames;
+        }
+
+        public void setColumnIndices(final int... columnIndices) {
+            Preconditions.checkArgument(columnIndices == null || columnIndices.length > 0);
+            this.columnIndices = columnIndices;
+        }
+
+        public void setExpectedRows(final int expectedRows) {
+            Preconditions.checkArgument(expectedRows >= 0);
+            this.expectedRows = expectedRows;
+        }
+
+        public void setNumThreads(final int numThreads) {
+            Preconditions.checkArgument(numThreads > 0);
+            this.numThreads = numThreads;
+        }
+
+        public void setCache(final boolean cache) {
+            this.cache = cache;
+        }
+
+        /** The type all columns are read into, FLOAT64 by default. */
+        public void setColumnType(final DVectorFrameFile.ColumnType columnType) {
+            Preconditions.checkNotNull(columnType);
+            this.columnType = columnType;
+        }
+
+        /** The type the column of one field is read into, e.g. to keep the target in FLOAT64. */
+        public void setColumnType(final String field, final DVectorFrameFile.ColumnType columnType) {
+            Preconditions.checkNotNull(field);
+            Preconditions.checkNotNull(columnType);
+            fieldColumnTypes.put(field, columnType);
+        }
+
+        /** A hash of the path and of everything which selects what is read. */
+        String cacheKey(final Path source) {
+            final Hasher hasher = Hashing.murmur3_128().newHasher();
+            hasher.putString(source.toString(), StandardCharsets.UTF_8).putBoolean(header);
+            putStrings(hasher, fields);
+            putStrings(hasher, columnNames);
+            hasher.putInt(columnIndices == null ? -1 : columnIndices.length);
+            if (columnIndices != null)
+                for (final int i : columnIndices)
+                    hasher.putInt(i);
+            hasher.putInt(columnType.ordinal());
+            for (final Map.Entry<String, DVectorFrameFile.ColumnType> entry : fieldColumnTypes.entrySet())
+                hasher.putInt(entry.getKey().length()).putString(entry.getKey(), StandardCharsets.UTF_8).putInt(entry.getValue().ordinal());
+            return Long.toHexString(hasher.hash().asLong());
+        }
+
+        private static void putStrings(final Hasher hasher, final String[] strings) {
+            hasher.putInt(strings == null ? -1 : strings.length);
+            if (strings != null)
+                for (final String s : strings)
+                    hasher.putInt(s.length()).putString(s, StandardCharsets.UTF_8);
+        }
+
+        /** Resolves the selection against the header, which is null for a headerless file. */
+        Projection project(final String[] headerNames) {
+            Preconditions.checkState(columnNames == null || columnIndices == null, "columns selected by name and by index");
+            final int[] indices;
+            if (columnNames != null) {
+                Preconditions.checkState(headerNames != null, "columns selected by name need a header");
+                final Map<String, Integer> headerIndices = new HashMap<>();
+                for (int i = headerNames.length - 1; i >= 0; --i)
+                    headerIndices.put(headerNames[i], i);
+                indices = new int[columnNames.length];
+                for (int c = 0; c < columnNames.length; ++c) {
+                    final Integer i = headerIndices.get(columnNames[c]);
+                    Preconditions.checkState(i != null, "no column %s in the header", columnNames[c]);
+                    indices[c] = i;
+                }
+            } else if (columnIndices != null) {
+                indices = columnIndices;
+            } else {
+                final int numColumns = headerNames != null ? headerNames.length : Preconditions.checkNotNull(fields, "no fields").length;
+                indices = new int[numColumns];
+                for (int c = 0; c < numColumns; ++c)
+                    indices[c] = c;
+            }
+
+            int width = 0;
+            for (final int i : indices) {
+                Preconditions.checkState(i >= 0, "negative column index %s", i);
+                width = Math.max(width, i + 1);
+            }
+            if (headerNames != null) {
+                Preconditions.checkState(width <= headerNames.length, "column index %s outside the header", width - 1);
+                width = headerNames.length;
+            }
+            final int[] targets = new int[width];
+            Arrays.fill(targets, -1);
+            for (int c = 0; c < indices.length; ++c) {
+                Preconditions.checkState(targets[indices[c]] < 0, "column %s selected twice", indices[c]);
+                targets[indices[c]] = c;
+            }
+
+            String[] projectedFields = fields;
+            if (projectedFields == null) {
+                Preconditions.checkState(headerNames != null, "columns selected by index need fields or a header");
+                projectedFields = new String[indices.length];
+                for (int c = 0; c < indices.length; ++c)
+                    projectedFields[c] = headerNames[indices[c]];
+            }
+            Preconditions.checkState(projectedFields.length == indices.length, "%s fields for %s columns", projectedFields.length, indices.length);
+
+            final DVectorFrameFile.ColumnType[] types = new DVectorFrameFile.ColumnType[projectedFields.length];
+            Arrays.fill(types, columnType);
+            for (final Map.Entry<String, DVectorFrameFile.ColumnType> entry : fieldColumnTypes.entrySet()) {
+                final int c = Arrays.asList(projectedFields).indexOf(entry.getKey());
+                Preconditions.checkState(c >= 0, "no field %s to set the column type of", entry.getKey());
+                types[c] = entry.getValue();
             }
+
+            // The width of a headerless file is only known if all of its columns are read.
+            final boolean strict = headerNames != null || (columnNames == null && columnIndices == null);
+            return new Projection(projectedFields, targets, types, strict);
+        }
+    }
+
+    /**
+     * The resolved selection: targets maps every column of the file up to the
+     * last one read to its field, or to -1 if it is skipped. If strict, rows
+     * must have exactly targets.length values, else the rest is ignored.
+     */
+    static final class Projection {
+
+        final String[] fields;
+
+        final int[] targets;
+
+        /** The column type of every field. */
+        final DVectorFrameFile.ColumnType[] types;
+
+        final boolean strict;
+
+        Projection(final String[] fields, final int[] targets, final DVectorFrameFile.ColumnType[] types, final boolean strict) {
+            this.fields = fields;
+            this.targets = targets;
+            this.types = types;
+            this.strict = strict;
         }
     }
+
+    // ---------------------------------------------------
+
+    /**
+     * Parses rows of comma separated numbers into column buffers, a
+     * DoubleColumnBuffer for FLOAT64 columns and a FloatColumnBuffer for the
+     * others, relative for quantized ones.
+     */
+    static final class RowParser {
+
+        /** The buffers of the FLOAT64 columns, else null. */
+        final DoubleColumnBuffer[] columns;
+
+        /** The buffers of the FLOAT32 and quantized columns, else null. */
+        final FloatColumnBuffer[] floatColumns;
+
+        final int[] targets;
+
+        final boolean strict;
+
+        int numRows;
+
+        RowParser(final Projection projection, final int expectedRows) {
+            Preconditions.checkArgument(projection.fields.length > 0);
+            this.columns = new DoubleColumnBuffer[projection.fields.length];
+            this.floatColumns = new FloatColumnBuffer[projection.fields.length];
+            for (int c = 0; c < columns.length; ++c) {
+                if (projection.types[c] == DVectorFrameFile.ColumnType.FLOAT64)
+                    columns[c] = new DoubleColumnBuffer(expectedRows);
+                else
+                    floatColumns[c] = new FloatColumnBuffer(expectedRows, projection.types[c].isQuantized());
+            }
+            this.targets = projection.targets;
+            this.strict = projection.strict;
+        }
+
+        /**
+         * Parses the complete rows in [from, to) of the buffer, a row ends at a
+         * newline, or at to if last is set. Returns the position after the last
+         * complete row. Empty lines are skipped.
+         */
+        int parse(final ByteBuffer buffer, final int from, final int to, final boolean last) {
+            int rowStart = from;
+            while (rowStart < to) {
+                int lineEnd = rowStart;
+                while (lineEnd < to && buffer.get(lineEnd) != '\n')
+                    ++lineEnd;
+                if (lineEnd == to && !last)
+                    return rowStart;
+                int contentEnd = lineEnd;
+                if (contentEnd > rowStart && buffer.get(contentEnd - 1) == '\r')
+                    --contentEnd;
+                if (contentEnd > rowStart)
+                    parseRow(buffer, rowStart, contentEnd);
+                rowStart = lineEnd + 1;
+            }
+            return to;
+        }
+
+        private void parseRow(final ByteBuffer buffer, final int from, final int to) {
+            int cellStart = from;
+            for (int c = 0; c < targets.length; ++c) {
+                int cellEnd = cellStart;
+                while (cellEnd < to && buffer.get(cellEnd) != ',')
+                    ++cellEnd;
+                if (cellEnd == to && c < targets.length - 1)
+                    throw new MalformedRowException(numRows, "has fewer than " + targets.length + " values");
+                // Skipped cells are only scanned for the separator.
+                final int target = targets[c];
+                if (target >= 0) {
+                    if (columns[target] != null)
+                        columns[target].add(parseDouble(buffer, cellStart, cellEnd));
+                    else
+                        floatColumns[target].add(parseDouble(buffer, cellStart, cellEnd));
+                }
+                cellStart = cellEnd + 1;
+            }
+            if (strict && cellStart <= to)
+                throw new MalformedRowException(numRows, "has more than " + targets.length + " values");
+            ++numRows;
+        }
+    }
+
+    /** A row which does not fit the projection, numbered from the first row its parser read. */
+    static final class MalformedRowException extends IllegalStateException {
+
+        private static final long serialVersionUID = 1L;
+
+        final long row;
+
+        final String problem;
+
+        MalformedRowException(final long row, final String problem) {
+            super("row " + row + " " + problem);
+            this.row = row;
+            this.problem = problem;
+        }
+    }
+
+    // ---------------------------------------------------
+
+    /** Exact powers of ten, all of them are representable as doubles. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parses the number in [from, to) of the buffer without allocating. Numbers
+     * with at most 15 significant digits and a decimal exponent within 22 are
+     * computed as one exact multiplication or division of two doubles, which
+     * is correctly rounded (Clinger's fast path), so the result is the same as
+     * Double.valueOf. Everything else, e.g. NaN, padded cells or long mantissas,
+     * goes through Double.parseDouble.
+     */
+    static double parseDouble(final ByteBuffer buffer, final int from, final int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            ++i;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        for (; i < to; ++i) {
+            final int d = buffer.get(i) - '0';
+            if (d < 0 || d > 9)
+                break;
+            anyDigit = true;
+            if (mantissa != 0 || d != 0) {
+                mantissa = mantissa * 10 + d;
+                ++numDigits;
+            }
+        }
+        if (i < to && buffer.get(i) == '.') {
+            for (++i; i < to; ++i) {
+                final int d = buffer.get(i) - '0';
+                if (d < 0 || d > 9)
+                    break;
+                anyDigit = true;
+                if (mantissa != 0 || d != 0) {
+                    mantissa = mantissa * 10 + d;
+                    ++numDigits;
+                }
+                --exponent;
+                if (numDigits > 15)
+                    break;
+            }
+        }
+        if (i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E') && anyDigit) {
+            ++i;
+            boolean negativeExponent = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                ++i;
+            }
+            int e = 0;
+            final int start = i;
+            for (; i < to && e < 1000; ++i) {
+                final int d = buffer.get(i) - '0';
+                if (d < 0 || d > 9)
+                    break;
+                e = e * 10 + d;
+            }
+            if (i == start)
+                return parseDoubleSlow(buffer, from, to);
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!anyDigit || i != to || numDigits > 15)
+            return parseDoubleSlow(buffer, from, to);
+        if (mantissa == 0)
+            return negative ? -0.0 : 0.0;
+        final double value;
+        if (exponent >= 0 && exponent <= 22)
+            value = mantissa * POWERS_OF_TEN[exponent];
+        else if (exponent < 0 && exponent >= -22)
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        else
+            return parseDoubleSlow(buffer, from, to);
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(final ByteBuffer buffer, final int from, final int to) {
+        final byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; ++i)
+            bytes[i - from] = buffer.get(i);
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
 }
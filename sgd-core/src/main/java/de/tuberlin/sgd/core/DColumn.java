@@ -0,0 +1,18 @@
+package de.tuberlin.sgd.core;
+
+/**
+ * A column of doubles, read and written by row whatever its storage. The
+ * kernels never call get per element on columns other than DVector, they
+ * copy blocks of rows onto the heap with copyTo.
+ */
+public interface DColumn {
+
+    public abstract int size();
+
+    public abstract double get(int i);
+
+    public abstract void set(int i, double value);
+
+    /** Copies the rows [from, from + n) into dest, starting at offset. */
+    public abstract void copyTo(int from, int n, double[] dest, int offset);
+}
@@ -2,9 +2,7 @@ package de.tuberlin.sgd.core;
 
 import com.google.common.base.Preconditions;
 
-import java.util.List;
-
-public class DVector {
+public class DVector implements DColumn {
 
     public final double[] elements;
 
@@ -13,18 +11,40 @@ public class DVector {
         this.elements = new double[size];
     }
 
+    private DVector(final double[] elements) {
+        this.elements = elements;
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public double get(final int i) {
+        return elements[i];
+    }
+
+    @Override
+    public void set(final int i, final double value) {
+        elements[i] = value;
+    }
+
+    @Override
+    public void copyTo(final int from, final int n, final double[] dest, final int offset) {
+        System.arraycopy(elements, from, dest, offset, n);
+    }
+
     public void set(final double[] data) {
         Preconditions.checkNotNull(data);
         Preconditions.checkArgument(elements.length == data.length);
         System.arraycopy(data, 0, elements, 0, data.length);
     }
 
-    static DVector createFrom(final List<Double> values) {
-        Preconditions.checkNotNull(values);
-        final DVector vec = new DVector(values.size());
-        int i = 0;
-        for (double val : values)
-            vec.elements[i++] = val;
-        return vec;
+    /** Wraps the array without a copy, the vector owns it from then on. */
+    static DVector wrap(final double[] elements) {
+        Preconditions.checkNotNull(elements);
+        Preconditions.checkArgument(elements.length > 0);
+        return new DVector(elements);
     }
 }
@@ -5,15 +5,23 @@ import com.google.common.base.Preconditions;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Named columns of equal length. Columns are usually DVectors on the heap,
+ * other DColumns, e.g. FloatDVectors or OffHeapDVectors, are set and read
+ * with setColumn and getColumn, getVec only returns DVectors.
+ */
 public class DVectorFrame {
 
-    private final DVector[] dVectors;
+    private final String[] names;
+
+    private final DColumn[] dVectors;
 
     private final Map<String, Integer> vecIndices;
 
     public DVectorFrame(final String[] names) {
         Preconditions.checkNotNull(names);
-        this.dVectors = new DVector[names.length];
+        this.names = names.clone();
+        this.dVectors = new DColumn[names.length];
         this.vecIndices = new HashMap<String,Integer>();
         int i = 0;
         for(String n : names)
@@ -38,14 +46,45 @@ public class DVectorFrame {
         Preconditions.checkNotNull(name);
         final Integer i = vecIndices.get(name);
         Preconditions.checkState(i != null);
-        return dVectors[i];
+        return getVec(i);
     }
 
     public DVector getVec(final int i) {
+        Preconditions.checkArgument(i >= 0 && i < dVectors.length);
+        Preconditions.checkState(dVectors[i] == null || dVectors[i] instanceof DVector, "column %s is no DVector", names[i]);
+        return (DVector) dVectors[i];
+    }
+
+    public void setColumn(final String name, final DColumn column) {
+        Preconditions.checkNotNull(name);
+        Preconditions.checkNotNull(column);
+        final Integer i = vecIndices.get(name);
+        Preconditions.checkState(i != null);
+        dVectors[i] = column;
+    }
+
+    public void setColumn(final int i, final DColumn column) {
+        Preconditions.checkArgument(i >= 0 && i < dVectors.length);
+        Preconditions.checkNotNull(column);
+        dVectors[i] = column;
+    }
+
+    public DColumn getColumn(final String name) {
+        Preconditions.checkNotNull(name);
+        final Integer i = vecIndices.get(name);
+        Preconditions.checkState(i != null);
+        return dVectors[i];
+    }
+
+    public DColumn getColumn(final int i) {
         Preconditions.checkArgument(i >= 0 && i < dVectors.length);
         return dVectors[i];
     }
 
+    public String[] getNames() {
+        return names.clone();
+    }
+
     public int getNumberOfVecs() {
         return dVectors.length;
     }
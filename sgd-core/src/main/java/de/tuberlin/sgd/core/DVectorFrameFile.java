@@ -0,0 +1,336 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary columnar file format for DVectorFrames. A small header with the
+ * number of rows and the name, type and offset of every column is followed
+ * by one contiguous region per column, aligned to COLUMN_ALIGNMENT bytes and
+ * stored little-endian. FloatDVectors are stored as FLOAT32, the codes of
+ * QuantizedDVectors as INT8 or INT16, all other columns as FLOAT64. The
+ * entries of INT8 and INT16 columns carry their scale and offset:
+ *
+ * <pre>
+ * int magic, int version, int headerSize, int numColumns, int numRows
+ * numColumns * (short nameLength, byte[] utf8Name, byte type, [double scale, double codeOffset,] long offset)
+ * padding, column 0, padding, column 1, ...
+ * </pre>
+ *
+ * Loading maps the file and bulk-copies the regions into the column arrays,
+ * nothing is parsed, or with map wraps the FLOAT64 columns as OffHeapDVectors
+ * without any copy. A CSV file is converted once with convertCSV.
+ */
+public final class DVectorFrameFile {
+
+    // Disallow instantiation.
+    private DVectorFrameFile() {}
+
+    static final int MAGIC = 0x44564346; // "DVCF"
+
+    static final int VERSION = 1;
+
+    /** Column regions start at multiples of this, the size of a cache line. */
+    static final int COLUMN_ALIGNMENT = 64;
+
+    /** The size of the fixed part of the header, up to the column entries. */
+    static final int FIXED_HEADER_SIZE = 20;
+
+    /** Columns are mapped in windows of this size. */
+    static final long MAP_WINDOW_SIZE = 1L << 30;
+
+    // ---------------------------------------------------
+
+    public enum ColumnType {
+
+        /** IEEE 754 doubles, 8 bytes per value. */
+        FLOAT64(1, 8),
+
+        /** IEEE 754 floats, 4 bytes per value, read as FloatDVectors. */
+        FLOAT32(2, 4),
+
+        /** 16 bit codes with a scale and offset per column, read as QuantizedDVectors. */
+        INT16(3, 2),
+
+        /** 8 bit codes with a scale and offset per column, read as QuantizedDVectors. */
+        INT8(4, 1);
+
+        final byte code;
+
+        final int valueSize;
+
+        ColumnType(final int code, final int valueSize) {
+            this.code = (byte) code;
+            this.valueSize = valueSize;
+        }
+
+        static ColumnType of(final byte code) {
+            for (final ColumnType type : values())
+                if (type.code == code)
+                    return type;
+            throw new IllegalStateException("unknown column type " + code);
+        }
+
+        static ColumnType of(final DColumn column) {
+            if (column instanceof FloatDVector)
+                return FLOAT32;
+            if (column instanceof QuantizedDVector)
+                return ((QuantizedDVector) column).bits == 8 ? INT8 : INT16;
+            return FLOAT64;
+        }
+
+        boolean isQuantized() {
+            return this == INT16 || this == INT8;
+        }
+    }
+
+    // ---------------------------------------------------
+
+    public static void write(final DVectorFrame frame, final String file) {
+        Preconditions.checkNotNull(frame);
+        Preconditions.checkNotNull(file);
+        final String[] names = frame.getNames();
+        Preconditions.checkArgument(names.length > 0);
+        for (int c = 0; c < names.length; ++c)
+            Preconditions.checkArgument(frame.getColumn(c) != null, "column %s is not set", names[c]);
+        final int numRows = frame.getColumn(0).size();
+        // load rejects files without rows as corrupt, so none are written.
+        Preconditions.checkArgument(numRows > 0, "frame has no rows");
+        for (int c = 0; c < names.length; ++c)
+            Preconditions.checkArgument(frame.getColumn(c).size() == numRows, "columns of different length");
+
+        final byte[][] encodedNames = new byte[names.length][];
+        final ColumnType[] types = new ColumnType[names.length];
+        int headerSize = FIXED_HEADER_SIZE;
+        for (int c = 0; c < names.length; ++c) {
+            encodedNames[c] = names[c].getBytes(StandardCharsets.UTF_8);
+            Preconditions.checkArgument(encodedNames[c].length <= Short.MAX_VALUE, "column name too long");
+            types[c] = ColumnType.of(frame.getColumn(c));
+            headerSize += 2 + encodedNames[c].length + 1 + (types[c].isQuantized() ? 16 : 0) + 8;
+        }
+        final long[] offsets = new long[names.length];
+        long offset = align(headerSize);
+        for (int c = 0; c < names.length; ++c) {
+            offsets[c] = offset;
+            offset = align(offset + (long) numRows * types[c].valueSize);
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(headerSize).putInt(names.length).putInt(numRows);
+        for (int c = 0; c < names.length; ++c) {
+            header.putShort((short) encodedNames[c].length).put(encodedNames[c]);
+            header.put(types[c].code);
+            if (types[c].isQuantized()) {
+                final QuantizedDVector column = (QuantizedDVector) frame.getColumn(c);
+                header.putDouble(column.scale).putDouble(column.offset);
+            }
+            header.putLong(offsets[c]);
+        }
+        header.flip();
+
+        try (final FileChannel channel = FileChannel.open(Paths.get(file),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            for (int c = 0; c < names.length; ++c) {
+                final DColumn column = frame.getColumn(c);
+                if (column instanceof DVector)
+                    transfer(channel, FileChannel.MapMode.READ_WRITE, offsets[c], ((DVector) column).elements);
+                else if (column instanceof FloatDVector)
+                    transfer(channel, FileChannel.MapMode.READ_WRITE, offsets[c], ((FloatDVector) column).elements);
+                else if (types[c] == ColumnType.INT16)
+                    transfer(channel, FileChannel.MapMode.READ_WRITE, offsets[c], ((QuantizedDVector) column).shorts);
+                else if (types[c] == ColumnType.INT8)
+                    transfer(channel, FileChannel.MapMode.READ_WRITE, offsets[c], ((QuantizedDVector) column).bytes);
+                else
+                    write(channel, offsets[c], frame.getColumn(c));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static DVectorFrame read(final String file) {
+        return load(file, false);
+    }
+
+    /**
+     * Maps the FLOAT64 columns of the file as read-only OffHeapDVectors in
+     * place, nothing is copied onto the heap. FLOAT32 columns are read into
+     * FloatDVectors, INT8 and INT16 columns into QuantizedDVectors. The
+     * mappings outlive the channel.
+     */
+    public static DVectorFrame map(final String file) {
+        return load(file, true);
+    }
+
+    private static DVectorFrame load(final String file, final boolean map) {
+        Preconditions.checkNotNull(file);
+        try (final FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            Preconditions.checkState(size >= FIXED_HEADER_SIZE, "%s is too short", file);
+            final ByteBuffer fixed = readFully(channel, 0, FIXED_HEADER_SIZE);
+            Preconditions.checkState(fixed.getInt() == MAGIC, "%s is not a frame file", file);
+            final int version = fixed.getInt();
+            Preconditions.checkState(version == VERSION, "unsupported version %s of %s", version, file);
+            final int headerSize = fixed.getInt();
+            final int numColumns = fixed.getInt();
+            final int numRows = fixed.getInt();
+            Preconditions.checkState(headerSize >= FIXED_HEADER_SIZE && headerSize <= size && numColumns > 0 && numRows > 0, "corrupt header in %s", file);
+
+            final ByteBuffer header = readFully(channel, FIXED_HEADER_SIZE, headerSize - FIXED_HEADER_SIZE);
+            final String[] names = new String[numColumns];
+            final ColumnType[] types = new ColumnType[numColumns];
+            final double[] scales = new double[numColumns];
+            final double[] quantizationOffsets = new double[numColumns];
+            final long[] offsets = new long[numColumns];
+            for (int c = 0; c < numColumns; ++c) {
+                final short nameLength = header.getShort();
+                Preconditions.checkState(nameLength >= 0, "corrupt header in %s", file);
+                final byte[] name = new byte[nameLength];
+                header.get(name);
+                names[c] = new String(name, StandardCharsets.UTF_8);
+                types[c] = ColumnType.of(header.get());
+                if (types[c].isQuantized()) {
+                    scales[c] = header.getDouble();
+                    quantizationOffsets[c] = header.getDouble();
+                }
+                offsets[c] = header.getLong();
+                Preconditions.checkState(offsets[c] >= headerSize && offsets[c] + (long) numRows * types[c].valueSize <= size, "column %s outside of %s", names[c], file);
+            }
+
+            final DVectorFrame frame = new DVectorFrame(names);
+            for (int c = 0; c < numColumns; ++c) {
+                if (types[c] == ColumnType.FLOAT32) {
+                    final float[] elements = new float[numRows];
+                    transfer(channel, FileChannel.MapMode.READ_ONLY, offsets[c], elements);
+                    frame.setColumn(c, FloatDVector.wrap(elements));
+                } else if (types[c] == ColumnType.INT16) {
+                    final short[] codes = new short[numRows];
+                    transfer(channel, FileChannel.MapMode.READ_ONLY, offsets[c], codes);
+                    frame.setColumn(c, new QuantizedDVector(16, scales[c], quantizationOffsets[c], null, codes));
+                } else if (types[c] == ColumnType.INT8) {
+                    final byte[] codes = new byte[numRows];
+                    transfer(channel, FileChannel.MapMode.READ_ONLY, offsets[c], codes);
+                    frame.setColumn(c, new QuantizedDVector(8, scales[c], quantizationOffsets[c], codes, null));
+                } else if (map) {
+                    frame.setColumn(c, OffHeapDVector.map(channel, FileChannel.MapMode.READ_ONLY, offsets[c], numRows, ByteOrder.LITTLE_ENDIAN));
+                } else {
+                    final double[] elements = new double[numRows];
+                    transfer(channel, FileChannel.MapMode.READ_ONLY, offsets[c], elements);
+                    frame.setVec(c, DVector.wrap(elements));
+                }
+            }
+            return frame;
+        } catch (IOException | BufferUnderflowException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("corrupt column in " + file, e);
+        }
+    }
+
+    /**
+     * Parses the CSV file once and writes it to file, later runs load it with
+     * read instead of parsing the text again.
+     */
+    public static DVectorFrame convertCSV(final String csvFile, final CSVDataReader.Options options, final String file) {
+        final DVectorFrame frame = CSVDataReader.readCSV(csvFile, options);
+        write(frame, file);
+        return frame;
+    }
+
+    // ---------------------------------------------------
+
+    private static long align(final long offset) {
+        return (offset + COLUMN_ALIGNMENT - 1) / COLUMN_ALIGNMENT * COLUMN_ALIGNMENT;
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IllegalStateException("unexpected end of file");
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Copies the elements from or to the region at offset, mapped in windows.
+     * With the native byte order the copy is a memcpy.
+     */
+    private static void transfer(final FileChannel channel, final FileChannel.MapMode mode, final long offset, final double[] elements) throws IOException {
+        final int windowLength = (int) (MAP_WINDOW_SIZE / ColumnType.FLOAT64.valueSize);
+        for (int from = 0; from < elements.length; from += windowLength) {
+            final int length = Math.min(windowLength, elements.length - from);
+            final MappedByteBuffer buffer = channel.map(mode, offset + (long) from * ColumnType.FLOAT64.valueSize, (long) length * ColumnType.FLOAT64.valueSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (mode == FileChannel.MapMode.READ_ONLY)
+                buffer.asDoubleBuffer().get(elements, from, length);
+            else
+                buffer.asDoubleBuffer().put(elements, from, length);
+        }
+    }
+
+    private static void transfer(final FileChannel channel, final FileChannel.MapMode mode, final long offset, final float[] elements) throws IOException {
+        final int windowLength = (int) (MAP_WINDOW_SIZE / ColumnType.FLOAT32.valueSize);
+        for (int from = 0; from < elements.length; from += windowLength) {
+            final int length = Math.min(windowLength, elements.length - from);
+            final MappedByteBuffer buffer = channel.map(mode, offset + (long) from * ColumnType.FLOAT32.valueSize, (long) length * ColumnType.FLOAT32.valueSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (mode == FileChannel.MapMode.READ_ONLY)
+                buffer.asFloatBuffer().get(elements, from, length);
+            else
+                buffer.asFloatBuffer().put(elements, from, length);
+        }
+    }
+
+    private static void transfer(final FileChannel channel, final FileChannel.MapMode mode, final long offset, final short[] codes) throws IOException {
+        final int windowLength = (int) (MAP_WINDOW_SIZE / ColumnType.INT16.valueSize);
+        for (int from = 0; from < codes.length; from += windowLength) {
+            final int length = Math.min(windowLength, codes.length - from);
+            final MappedByteBuffer buffer = channel.map(mode, offset + (long) from * ColumnType.INT16.valueSize, (long) length * ColumnType.INT16.valueSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (mode == FileChannel.MapMode.READ_ONLY)
+                buffer.asShortBuffer().get(codes, from, length);
+            else
+                buffer.asShortBuffer().put(codes, from, length);
+        }
+    }
+
+    private static void transfer(final FileChannel channel, final FileChannel.MapMode mode, final long offset, final byte[] codes) throws IOException {
+        for (int from = 0; from < codes.length; from += (int) MAP_WINDOW_SIZE) {
+            final int length = (int) Math.min(MAP_WINDOW_SIZE, codes.length - from);
+            final MappedByteBuffer buffer = channel.map(mode, offset + from, length);
+            if (mode == FileChannel.MapMode.READ_ONLY)
+                buffer.get(codes, from, length);
+            else
+                buffer.put(codes, from, length);
+        }
+    }
+
+    /** Writes any other column as FLOAT64, staged through a small buffer. */
+    private static void write(final FileChannel channel, final long offset, final DColumn column) throws IOException {
+        final int windowLength = (int) (MAP_WINDOW_SIZE / ColumnType.FLOAT64.valueSize);
+        final double[] chunk = new double[Math.min(column.size(), 1 << 16)];
+        for (int from = 0; from < column.size(); from += windowLength) {
+            final int length = Math.min(windowLength, column.size() - from);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset + (long) from * ColumnType.FLOAT64.valueSize, (long) length * ColumnType.FLOAT64.valueSize);
+            final DoubleBuffer doubles = buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            for (int i = from; i < from + length; i += chunk.length) {
+                final int n = Math.min(chunk.length, from + length - i);
+                column.copyTo(i, n, chunk, 0);
+                doubles.put(chunk, 0, n);
+            }
+        }
+    }
+}
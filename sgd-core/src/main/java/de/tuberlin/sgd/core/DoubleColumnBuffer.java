@@ -0,0 +1,72 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A growable column of primitive doubles, filled while loading and then
+ * handed to a DVector. Presized with the expected number of rows, the array
+ * is handed over without a copy if the expectation was exact.
+ */
+public final class DoubleColumnBuffer {
+
+    private static final double[] EMPTY = new double[0];
+
+    private double[] elements;
+
+    private int size;
+
+    public DoubleColumnBuffer(final int expectedSize) {
+        Preconditions.checkArgument(expectedSize > 0);
+        this.elements = new double[expectedSize];
+    }
+
+    public void add(final double value) {
+        if (size == elements.length)
+            grow(size + 1);
+        elements[size++] = value;
+    }
+
+    public double get(final int i) {
+        Preconditions.checkElementIndex(i, size);
+        return elements[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public void ensureCapacity(final int capacity) {
+        if (capacity > elements.length)
+            grow(capacity);
+    }
+
+    private void grow(final int minCapacity) {
+        Preconditions.checkState(minCapacity > 0, "column too large");
+        // Grow by half, so a slightly low expectation costs less than doubling would.
+        final int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) elements.length * 3 / 2, minCapacity));
+        elements = Arrays.copyOf(elements, capacity);
+    }
+
+    /** Copies the elements into dest, starting at offset. */
+    public void copyTo(final double[] dest, final int offset) {
+        System.arraycopy(elements, 0, dest, offset, size);
+    }
+
+    /**
+     * Hands the elements to a new DVector, without a copy if the buffer is
+     * full, else the array is trimmed first. The buffer is empty afterwards.
+     */
+    public DVector toDVector() {
+        Preconditions.checkState(size > 0);
+        final double[] result = size == elements.length ? elements : Arrays.copyOf(elements, size);
+        elements = EMPTY;
+        size = 0;
+        return DVector.wrap(result);
+    }
+}
@@ -0,0 +1,117 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A growable column of primitive floats, filled while loading and then handed
+ * to a FloatDVector, half the memory of a DoubleColumnBuffer. Presized with
+ * the expected number of rows, the array is handed over without a copy if the
+ * expectation was exact.
+ *
+ * A relative buffer stores every value as the float closest to its difference
+ * to the first finite value, the base, so values far from zero but close to
+ * each other keep their precision, the error is at most 2^-24 times the range
+ * of the column. Values that are not finite stay what they are whatever the
+ * base, so the ones before it are stored as they come.
+ */
+public final class FloatColumnBuffer implements DColumn {
+
+    private static final float[] EMPTY = new float[0];
+
+    private final boolean relative;
+
+    private float[] elements;
+
+    private int size;
+
+    private double base;
+
+    private boolean hasBase;
+
+    public FloatColumnBuffer(final int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    public FloatColumnBuffer(final int expectedSize, final boolean relative) {
+        Preconditions.checkArgument(expectedSize > 0);
+        this.elements = new float[expectedSize];
+        this.relative = relative;
+    }
+
+    public void add(final double value) {
+        if (size == elements.length)
+            grow(size + 1);
+        if (relative && !hasBase && !Double.isNaN(value) && !Double.isInfinite(value)) {
+            base = value;
+            hasBase = true;
+        }
+        elements[size++] = (float) (value - base);
+    }
+
+    @Override
+    public double get(final int i) {
+        Preconditions.checkElementIndex(i, size);
+        return base + elements[i];
+    }
+
+    @Override
+    public void set(final int i, final double value) {
+        Preconditions.checkElementIndex(i, size);
+        elements[i] = (float) (value - base);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /** The value all elements are stored relative to, 0 unless the buffer is relative. */
+    public double getBase() {
+        return base;
+    }
+
+    public void ensureCapacity(final int capacity) {
+        if (capacity > elements.length)
+            grow(capacity);
+    }
+
+    private void grow(final int minCapacity) {
+        Preconditions.checkState(minCapacity > 0, "column too large");
+        // Grow by half, so a slightly low expectation costs less than doubling would.
+        final int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) elements.length * 3 / 2, minCapacity));
+        elements = Arrays.copyOf(elements, capacity);
+    }
+
+    @Override
+    public void copyTo(final int from, final int n, final double[] dest, final int offset) {
+        Preconditions.checkPositionIndexes(from, from + n, size);
+        Preconditions.checkPositionIndexes(offset, offset + n, dest.length);
+        for (int r = 0; r < n; ++r)
+            dest[offset + r] = base + elements[from + r];
+    }
+
+    /** Copies the elements of a buffer that is not relative into dest, starting at offset. */
+    public void copyTo(final float[] dest, final int offset) {
+        Preconditions.checkState(!relative);
+        System.arraycopy(elements, 0, dest, offset, size);
+    }
+
+    /**
+     * Hands the elements to a new FloatDVector, without a copy if the buffer is
+     * full, else the array is trimmed first. The buffer is empty afterwards.
+     */
+    public FloatDVector toFloatDVector() {
+        Preconditions.checkState(size > 0);
+        Preconditions.checkState(!relative);
+        final float[] result = size == elements.length ? elements : Arrays.copyOf(elements, size);
+        elements = EMPTY;
+        size = 0;
+        return FloatDVector.wrap(result);
+    }
+}
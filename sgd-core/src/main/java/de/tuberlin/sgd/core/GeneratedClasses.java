@@ -0,0 +1,107 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The classes generated at runtime with ASM, by RecordAccessors and the
+ * SGDKernelCompiler. Each is generated once per key and then cached, the
+ * classes live as long as the cache. A generated class is loaded by a class
+ * loader of its own, so it sees the public API of sgd-core only.
+ */
+final class GeneratedClasses {
+
+    // Disallow instantiation.
+    private GeneratedClasses() {}
+
+    interface Generator {
+
+        /** Returns the class file of the class with the given internal name. */
+        byte[] generate(String className);
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader() {
+            super(GeneratedClasses.class.getClassLoader());
+        }
+
+        Class<?> define(final String className, final byte[] code) {
+            return defineClass(className, code, 0, code.length);
+        }
+    }
+
+    private static final String PACKAGE = "de.tuberlin.sgd.core.generated.";
+
+    private static final GeneratedClassLoader LOADER = new GeneratedClassLoader();
+
+    private static final ConcurrentMap<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
+
+    /** Returns the subclass of base for the key, generated on first use. */
+    static Class<?> get(final Class<?> base, final String key, final Generator generator) {
+        final String fullKey = base.getSimpleName() + key;
+        Class<?> clazz = CLASSES.get(fullKey);
+        if (clazz == null) {
+            synchronized (LOADER) {
+                clazz = CLASSES.get(fullKey);
+                if (clazz == null) {
+                    final String className = PACKAGE + base.getSimpleName() + "$" + CLASSES.size();
+                    clazz = LOADER.define(className, generator.generate(className.replace('.', '/')));
+                    CLASSES.put(fullKey, clazz);
+                }
+            }
+        }
+        return clazz;
+    }
+
+    static int size() {
+        return CLASSES.size();
+    }
+
+    // ---------------------------------------------------
+
+    static String internalName(final Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    /**
+     * Starts a public final subclass of base whose only constructor passes its
+     * arguments, all of them references, on to the constructor of base.
+     */
+    static ClassWriter newClass(final String className, final Class<?> base, final Class<?>... parameters) {
+        final StringBuilder descriptor = new StringBuilder("(");
+        for (final Class<?> parameter : parameters) {
+            Preconditions.checkArgument(!parameter.isPrimitive());
+            descriptor.append('L').append(internalName(parameter)).append(';');
+        }
+        descriptor.append(")V");
+
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, className, null, internalName(base), null);
+        final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", descriptor.toString(), null, null);
+        init.visitCode();
+        for (int k = 0; k <= parameters.length; ++k)
+            init.visitVarInsn(Opcodes.ALOAD, k);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, internalName(base), "<init>", descriptor.toString());
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        return cw;
+    }
+
+    static void pushInt(final MethodVisitor mv, final int value) {
+        if (value >= -1 && value <= 5)
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        else
+            mv.visitLdcInsn(value);
+    }
+}
@@ -0,0 +1,167 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A DVector stored outside of the heap, in direct or mapped memory, so frames
+ * can grow far beyond the heap without adding to the work of the garbage
+ * collector. Element i is a value of the layout at byte offset
+ * layout.getBaseOffset() + i * layout.size() of its segment, every access is
+ * an absolute get or put of a double on a ByteBuffer. A column is split into
+ * segments of SEGMENT_SIZE elements, since a buffer can hold at most 2 GB.
+ *
+ * Direct memory counts against -XX:MaxDirectMemorySize and is released when
+ * the vector is collected.
+ */
+public final class OffHeapDVector implements DColumn {
+
+    /** Elements per segment, a 1 GB buffer of doubles. */
+    static final int SEGMENT_SHIFT = 27;
+
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /** The layout of the elements of all vectors, contiguous doubles. */
+    public static final Types.PrimitiveTypeInformation LAYOUT = new Types.PrimitiveTypeInformation(0, Types.PrimitiveType.DOUBLE);
+
+    /** The layout of a single element. */
+    public final Types.PrimitiveTypeInformation layout;
+
+    private final ByteBuffer[] segments;
+
+    /** Double views of the segments for bulk copies. */
+    private final DoubleBuffer[] views;
+
+    private final int size;
+
+    private final int stride;
+
+    private final int baseOffset;
+
+    private OffHeapDVector(final Types.PrimitiveTypeInformation layout, final ByteBuffer[] segments, final int size) {
+        Preconditions.checkArgument(layout.type == Types.PrimitiveType.DOUBLE, "no double layout: %s", layout);
+        // The double views of the bulk copies read contiguous doubles from the start of a segment.
+        Preconditions.checkArgument(layout.getBaseOffset() == 0, "elements do not start the segment: %s", layout.getBaseOffset());
+        this.layout = layout;
+        this.stride = layout.size();
+        this.baseOffset = layout.getBaseOffset();
+        this.segments = segments;
+        this.size = size;
+        this.views = new DoubleBuffer[segments.length];
+        for (int s = 0; s < segments.length; ++s)
+            views[s] = segments[s].asDoubleBuffer();
+    }
+
+    /** Allocates a zeroed vector of size doubles in direct memory. */
+    public static OffHeapDVector allocate(final int size) {
+        Preconditions.checkArgument(size > 0);
+        final ByteBuffer[] segments = new ByteBuffer[numSegments(size)];
+        for (int s = 0; s < segments.length; ++s) {
+            final int length = Math.min(SEGMENT_SIZE, size - (s << SEGMENT_SHIFT));
+            segments[s] = ByteBuffer.allocateDirect(length * LAYOUT.size()).order(ByteOrder.nativeOrder());
+        }
+        return new OffHeapDVector(LAYOUT, segments, size);
+    }
+
+    /** Copies the vector into direct memory. */
+    public static OffHeapDVector copyOf(final DVector vector) {
+        Preconditions.checkNotNull(vector);
+        final OffHeapDVector copy = allocate(vector.elements.length);
+        copy.set(vector.elements);
+        return copy;
+    }
+
+    /**
+     * Maps size doubles of the file, stored with the given byte order from
+     * position on. Read-only vectors throw on set, and the file must hold
+     * all elements.
+     */
+    public static OffHeapDVector map(final FileChannel channel,
+                                     final FileChannel.MapMode mode,
+                                     final long position,
+                                     final int size,
+                                     final ByteOrder order) throws IOException {
+        Preconditions.checkNotNull(channel);
+        Preconditions.checkArgument(size > 0);
+        Preconditions.checkArgument(position >= 0);
+        final long end = position + (long) size * LAYOUT.size();
+        Preconditions.checkArgument(mode != FileChannel.MapMode.READ_ONLY || end <= channel.size(),
+                "%s elements of %s end at byte %s of a file of %s bytes", size, LAYOUT, end, channel.size());
+        final ByteBuffer[] segments = new ByteBuffer[numSegments(size)];
+        for (int s = 0; s < segments.length; ++s) {
+            final int length = Math.min(SEGMENT_SIZE, size - (s << SEGMENT_SHIFT));
+            segments[s] = channel.map(mode, position + ((long) s << SEGMENT_SHIFT) * LAYOUT.size(), (long) length * LAYOUT.size()).order(order);
+        }
+        return new OffHeapDVector(LAYOUT, segments, size);
+    }
+
+    private static int numSegments(final int size) {
+        return (int) (((long) size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+    }
+
+    // ---------------------------------------------------
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double get(final int i) {
+        Preconditions.checkElementIndex(i, size);
+        return segments[i >>> SEGMENT_SHIFT].getDouble(offset(i));
+    }
+
+    @Override
+    public void set(final int i, final double value) {
+        Preconditions.checkElementIndex(i, size);
+        segments[i >>> SEGMENT_SHIFT].putDouble(offset(i), value);
+    }
+
+    public void set(final double[] data) {
+        Preconditions.checkNotNull(data);
+        Preconditions.checkArgument(size == data.length);
+        for (int i = 0; i < size; ++i)
+            segments[i >>> SEGMENT_SHIFT].putDouble(offset(i), data[i]);
+    }
+
+    /** The byte offset of element i in its segment. */
+    private int offset(final int i) {
+        return baseOffset + (i & SEGMENT_MASK) * stride;
+    }
+
+    /**
+     * Copies the rows [from, from + n) onto the heap, in bulk through a
+     * duplicate of the double view of a segment, a memcpy for native order.
+     */
+    @Override
+    public void copyTo(final int from, final int n, final double[] dest, final int offset) {
+        Preconditions.checkPositionIndexes(from, from + n, size);
+        int i = from, o = offset;
+        final int end = from + n;
+        while (i < end) {
+            final int s = i >>> SEGMENT_SHIFT;
+            final int segmentEnd = (int) Math.min(end, ((long) s + 1) << SEGMENT_SHIFT);
+            // The duplicate has its own position, so concurrent copies do not interfere.
+            final DoubleBuffer view = views[s].duplicate();
+            view.position(i & SEGMENT_MASK);
+            view.get(dest, o, segmentEnd - i);
+            o += segmentEnd - i;
+            i = segmentEnd;
+        }
+    }
+
+    /** Copies the vector onto the heap. */
+    public DVector toDVector() {
+        final double[] elements = new double[size];
+        copyTo(0, size, elements, 0);
+        return DVector.wrap(elements);
+    }
+}
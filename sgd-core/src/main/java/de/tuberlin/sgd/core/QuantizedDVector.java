@@ -0,0 +1,123 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A column of 8 or 16 bit codes, an eighth or a quarter of the memory and
+ * bandwidth of a DVector. The value of a code is offset + scale * code. Scale
+ * and offset are learned from the column when it is quantized, its minimum
+ * and maximum become the smallest and the largest code, so every value is off
+ * by at most scale / 2. Values set later are clamped to that range.
+ *
+ * Like FloatDVector the column is dequantized block by block with copyTo, the
+ * kernels still accumulate dot products and gradients in double.
+ */
+public final class QuantizedDVector implements DColumn {
+
+    /** The number of bits per code, 8 or 16. */
+    public final int bits;
+
+    public final double scale;
+
+    public final double offset;
+
+    /** The codes of an 8 bit column, else null. */
+    final byte[] bytes;
+
+    /** The codes of a 16 bit column, else null. */
+    final short[] shorts;
+
+    private final int maxCode;
+
+    QuantizedDVector(final int bits, final double scale, final double offset, final byte[] bytes, final short[] shorts) {
+        Preconditions.checkArgument(bits == 8 ? bytes != null && shorts == null : bits == 16 && bytes == null && shorts != null, "no %s bit codes", bits);
+        Preconditions.checkArgument(scale >= 0.0 && !Double.isInfinite(scale) && !Double.isNaN(offset) && !Double.isInfinite(offset));
+        this.bits = bits;
+        this.scale = scale;
+        this.offset = offset;
+        this.bytes = bytes;
+        this.shorts = shorts;
+        this.maxCode = (1 << (bits - 1)) - 1;
+        Preconditions.checkArgument(size() > 0);
+    }
+
+    /**
+     * Quantizes the column to codes of 8 or 16 bits, with the scale and offset
+     * that spread its range of values over all codes.
+     */
+    public static QuantizedDVector quantize(final DColumn column, final int bits) {
+        Preconditions.checkNotNull(column);
+        return quantize(new DColumn[] {column}, bits);
+    }
+
+    /**
+     * Quantizes the rows of the chunks, one after the other, into a single
+     * column, e.g. the chunks a file was read in, without joining them first.
+     */
+    static QuantizedDVector quantize(final DColumn[] chunks, final int bits) {
+        Preconditions.checkArgument(bits == 8 || bits == 16, "no %s bit codes", bits);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int size = 0;
+        for (final DColumn chunk : chunks) {
+            for (int i = 0; i < chunk.size(); ++i) {
+                final double value = chunk.get(i);
+                Preconditions.checkArgument(!Double.isNaN(value) && !Double.isInfinite(value), "row %s is no finite value", size + i);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            size += chunk.size();
+        }
+        final int maxCode = (1 << (bits - 1)) - 1;
+        final QuantizedDVector quantized = new QuantizedDVector(bits, (max - min) / (2 * maxCode), min / 2 + max / 2,
+                bits == 8 ? new byte[size] : null, bits == 16 ? new short[size] : null);
+        int row = 0;
+        for (final DColumn chunk : chunks)
+            for (int i = 0; i < chunk.size(); ++i)
+                quantized.set(row++, chunk.get(i));
+        return quantized;
+    }
+
+    // ---------------------------------------------------
+
+    @Override
+    public int size() {
+        return bytes != null ? bytes.length : shorts.length;
+    }
+
+    @Override
+    public double get(final int i) {
+        return offset + scale * (bytes != null ? bytes[i] : shorts[i]);
+    }
+
+    /** Stores the code closest to the value, clamped to the range of the codes. */
+    @Override
+    public void set(final int i, final double value) {
+        final int code = scale == 0.0 ? 0 : (int) Math.max(-maxCode, Math.min(maxCode, Math.round((value - offset) / scale)));
+        if (bytes != null)
+            bytes[i] = (byte) code;
+        else
+            shorts[i] = (short) code;
+    }
+
+    /** Dequantizes the rows [from, from + n), a loop the JIT vectorizes. */
+    @Override
+    public void copyTo(final int from, final int n, final double[] dest, final int destOffset) {
+        Preconditions.checkPositionIndexes(from, from + n, size());
+        Preconditions.checkPositionIndexes(destOffset, destOffset + n, dest.length);
+        if (bytes != null) {
+            for (int r = 0; r < n; ++r)
+                dest[destOffset + r] = offset + scale * bytes[from + r];
+        } else {
+            for (int r = 0; r < n; ++r)
+                dest[destOffset + r] = offset + scale * shorts[from + r];
+        }
+    }
+
+    /** Dequantizes the vector to doubles. */
+    public DVector toDVector() {
+        final double[] values = new double[size()];
+        copyTo(0, values.length, values, 0);
+        return DVector.wrap(values);
+    }
+}
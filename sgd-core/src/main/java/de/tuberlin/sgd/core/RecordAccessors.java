@@ -0,0 +1,284 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Field accessors for RecordBuffers compiled to bytecode with ASM. Reading a
+ * field by selector walks the type on every call. The offset of a generated
+ * accessor is a constant in its code instead, so once inlined a get is a
+ * single load at the record start plus a constant.
+ *
+ * Every field gets a class of its own, so the call site of every field stays
+ * monomorphic. The classes only depend on the primitive type and the offset,
+ * they are cached and shared between layouts. A DoubleRowReader copies all
+ * double fields of a compound field into an array, unrolled.
+ */
+public final class RecordAccessors {
+
+    // Disallow instantiation.
+    private RecordAccessors() {}
+
+    /**
+     * The unrolled reader spends at most 14 bytes of bytecode on a field, the
+     * index and the offset need a sipush or an ldc of 3 bytes each.
+     */
+    private static final int MAX_BYTES_PER_FIELD = 14;
+
+    /**
+     * Compounds with more fields are read by a loop. The JIT does not compile
+     * methods of more than 8000 bytes, an unrolled reader that large would
+     * stay interpreted.
+     */
+    static final int MAX_UNROLLED_FIELDS = (8000 - 1) / MAX_BYTES_PER_FIELD;
+
+    // ---------------------------------------------------
+
+    public static abstract class DoubleField {
+
+        public abstract double get(ByteBuffer buffer, int recordStart);
+
+        public abstract void put(ByteBuffer buffer, int recordStart, double value);
+    }
+
+    public static abstract class FloatField {
+
+        public abstract float get(ByteBuffer buffer, int recordStart);
+
+        public abstract void put(ByteBuffer buffer, int recordStart, float value);
+    }
+
+    public static abstract class LongField {
+
+        public abstract long get(ByteBuffer buffer, int recordStart);
+
+        public abstract void put(ByteBuffer buffer, int recordStart, long value);
+    }
+
+    public static abstract class IntField {
+
+        public abstract int get(ByteBuffer buffer, int recordStart);
+
+        public abstract void put(ByteBuffer buffer, int recordStart, int value);
+    }
+
+    public static abstract class ShortField {
+
+        public abstract short get(ByteBuffer buffer, int recordStart);
+
+        public abstract void put(ByteBuffer buffer, int recordStart, short value);
+    }
+
+    /** Reads the double fields of a compound field in order into out. */
+    public static abstract class DoubleRowReader {
+
+        public abstract int getNumberOfFields();
+
+        public abstract void read(ByteBuffer buffer, int recordStart, double[] out);
+    }
+
+    // ---------------------------------------------------
+
+    public static DoubleField doubleField(final Types.ITypeInformation type, final int[] selector) {
+        return (DoubleField) field(type, selector, Types.PrimitiveType.DOUBLE, DoubleField.class);
+    }
+
+    public static FloatField floatField(final Types.ITypeInformation type, final int[] selector) {
+        return (FloatField) field(type, selector, Types.PrimitiveType.FLOAT, FloatField.class);
+    }
+
+    public static LongField longField(final Types.ITypeInformation type, final int[] selector) {
+        return (LongField) field(type, selector, Types.PrimitiveType.LONG, LongField.class);
+    }
+
+    public static IntField intField(final Types.ITypeInformation type, final int[] selector) {
+        return (IntField) field(type, selector, Types.PrimitiveType.INT, IntField.class);
+    }
+
+    public static ShortField shortField(final Types.ITypeInformation type, final int[] selector) {
+        return (ShortField) field(type, selector, Types.PrimitiveType.SHORT, ShortField.class);
+    }
+
+    /**
+     * Returns a reader of all primitive fields of the compound field at the
+     * selector, nested ones included, which must all be doubles.
+     */
+    public static DoubleRowReader doubleRowReader(final Types.ITypeInformation type, final int[] selector) {
+        final List<Types.PrimitiveTypeInformation> leaves = new ArrayList<>();
+        collectLeaves(select(type, selector), leaves);
+        final int[] offsets = new int[leaves.size()];
+        for (int k = 0; k < offsets.length; ++k) {
+            Preconditions.checkArgument(leaves.get(k).type == Types.PrimitiveType.DOUBLE, "field %s is %s, not DOUBLE", k, leaves.get(k).type);
+            offsets[k] = leaves.get(k).baseOffset;
+        }
+        if (offsets.length > MAX_UNROLLED_FIELDS)
+            return new LoopDoubleRowReader(offsets);
+        return (DoubleRowReader) instantiate(DoubleRowReader.class, Arrays.toString(offsets), new GeneratedClasses.Generator() {
+
+            @Override
+            public byte[] generate(final String className) {
+                return generateRowReader(className, offsets);
+            }
+        });
+    }
+
+    // ---------------------------------------------------
+
+    private static Types.ITypeInformation select(final Types.ITypeInformation type, final int[] selector) {
+        Preconditions.checkNotNull(type);
+        Preconditions.checkNotNull(selector);
+        return selector.length == 0 ? type : type.getField(selector);
+    }
+
+    private static void collectLeaves(final Types.ITypeInformation type, final List<Types.PrimitiveTypeInformation> leaves) {
+        if (type instanceof Types.PrimitiveTypeInformation)
+            leaves.add((Types.PrimitiveTypeInformation) type);
+        else
+            for (int k = 0; k < type.getNumberOfFields(); ++k)
+                collectLeaves(type.getField(k), leaves);
+    }
+
+    private static Object field(final Types.ITypeInformation type,
+                                final int[] selector,
+                                final Types.PrimitiveType expected,
+                                final Class<?> base) {
+        final Types.ITypeInformation field = select(type, selector);
+        Preconditions.checkArgument(field instanceof Types.PrimitiveTypeInformation, "no primitive field");
+        final Types.PrimitiveTypeInformation primitive = (Types.PrimitiveTypeInformation) field;
+        Preconditions.checkArgument(primitive.type == expected, "field is %s, not %s", primitive.type, expected);
+        final int offset = primitive.baseOffset;
+        return instantiate(base, Integer.toString(offset), new GeneratedClasses.Generator() {
+
+            @Override
+            public byte[] generate(final String className) {
+                return generateField(className, base, expected, offset);
+            }
+        });
+    }
+
+    // ---------------------------------------------------
+
+    /** Returns an instance of the subclass of base for the offsets in key, generated on first use. */
+    private static Object instantiate(final Class<?> base, final String offsets, final GeneratedClasses.Generator generator) {
+        try {
+            return GeneratedClasses.get(base, offsets, generator).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The number of classes generated so far, accessors and compiled kernels. */
+    public static int getNumberOfGeneratedClasses() {
+        return GeneratedClasses.size();
+    }
+
+    // ---------------------------------------------------
+
+    private static final String BYTE_BUFFER = "java/nio/ByteBuffer";
+
+    /** Pushes the buffer and the position recordStart + offset. */
+    private static void pushPosition(final MethodVisitor mv, final int offset) {
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        GeneratedClasses.pushInt(mv, offset);
+        mv.visitInsn(Opcodes.IADD);
+    }
+
+    /**
+     * get(buffer, recordStart) returns buffer.getX(recordStart + offset),
+     * put(buffer, recordStart, value) calls buffer.putX(recordStart + offset, value).
+     */
+    private static byte[] generateField(final String className,
+                                        final Class<?> base,
+                                        final Types.PrimitiveType type,
+                                        final int offset) {
+        final String name, descriptor;
+        final int load, ret;
+        switch (type) {
+            case DOUBLE: name = "Double"; descriptor = "D"; load = Opcodes.DLOAD; ret = Opcodes.DRETURN; break;
+            case FLOAT: name = "Float"; descriptor = "F"; load = Opcodes.FLOAD; ret = Opcodes.FRETURN; break;
+            case LONG: name = "Long"; descriptor = "J"; load = Opcodes.LLOAD; ret = Opcodes.LRETURN; break;
+            case INT: name = "Int"; descriptor = "I"; load = Opcodes.ILOAD; ret = Opcodes.IRETURN; break;
+            case SHORT: name = "Short"; descriptor = "S"; load = Opcodes.ILOAD; ret = Opcodes.IRETURN; break;
+            default: throw new IllegalStateException();
+        }
+        final ClassWriter cw = GeneratedClasses.newClass(className, base);
+
+        final MethodVisitor get = cw.visitMethod(Opcodes.ACC_PUBLIC, "get", "(L" + BYTE_BUFFER + ";I)" + descriptor, null, null);
+        get.visitCode();
+        pushPosition(get, offset);
+        get.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "get" + (type == Types.PrimitiveType.SHORT ? "Short" : name), "(I)" + descriptor);
+        get.visitInsn(ret);
+        get.visitMaxs(0, 0);
+        get.visitEnd();
+
+        final MethodVisitor put = cw.visitMethod(Opcodes.ACC_PUBLIC, "put", "(L" + BYTE_BUFFER + ";I" + descriptor + ")V", null, null);
+        put.visitCode();
+        pushPosition(put, offset);
+        put.visitVarInsn(load, 3);
+        put.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "put" + name, "(I" + descriptor + ")L" + BYTE_BUFFER + ";");
+        put.visitInsn(Opcodes.POP);
+        put.visitInsn(Opcodes.RETURN);
+        put.visitMaxs(0, 0);
+        put.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /** read(buffer, recordStart, out) sets out[k] = buffer.getDouble(recordStart + offsets[k]) for every k. */
+    private static byte[] generateRowReader(final String className, final int[] offsets) {
+        final ClassWriter cw = GeneratedClasses.newClass(className, DoubleRowReader.class);
+
+        final MethodVisitor size = cw.visitMethod(Opcodes.ACC_PUBLIC, "getNumberOfFields", "()I", null, null);
+        size.visitCode();
+        GeneratedClasses.pushInt(size, offsets.length);
+        size.visitInsn(Opcodes.IRETURN);
+        size.visitMaxs(0, 0);
+        size.visitEnd();
+
+        final MethodVisitor read = cw.visitMethod(Opcodes.ACC_PUBLIC, "read", "(L" + BYTE_BUFFER + ";I[D)V", null, null);
+        read.visitCode();
+        for (int k = 0; k < offsets.length; ++k) {
+            read.visitVarInsn(Opcodes.ALOAD, 3);
+            GeneratedClasses.pushInt(read, k);
+            pushPosition(read, offsets[k]);
+            read.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "getDouble", "(I)D");
+            read.visitInsn(Opcodes.DASTORE);
+        }
+        read.visitInsn(Opcodes.RETURN);
+        read.visitMaxs(0, 0);
+        read.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /** The reader of compounds too large to unroll. */
+    private static final class LoopDoubleRowReader extends DoubleRowReader {
+
+        private final int[] offsets;
+
+        LoopDoubleRowReader(final int[] offsets) {
+            this.offsets = offsets;
+        }
+
+        @Override
+        public int getNumberOfFields() {
+            return offsets.length;
+        }
+
+        @Override
+        public void read(final ByteBuffer buffer, final int recordStart, final double[] out) {
+            for (int k = 0; k < offsets.length; ++k)
+                out[k] = buffer.getDouble(recordStart + offsets[k]);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size records laid out back to back in direct or mapped memory, the
+ * layout of a record is an ITypeInformation, e.g. a training sample of label,
+ * weight and features built with a TypeInfoBuilder. Fields are read and
+ * written by the offset from getFieldOffset, which hot loops compute once,
+ * or by selector, which walks the type on every call. No access allocates.
+ *
+ * Records are packed without padding, so fields may be unaligned. A segment
+ * holds a power of two records in at most 1 GB and no record crosses a
+ * segment, so the address of a field is a shift, a mask and a multiply-add.
+ */
+public final class RecordBuffer {
+
+    /** The maximum number of bytes of a segment. */
+    static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    public final Types.ITypeInformation type;
+
+    private final int recordSize;
+
+    private final int numRecords;
+
+    private final ByteBuffer[] segments;
+
+    private final int segmentShift;
+
+    private final int segmentMask;
+
+    private RecordBuffer(final Types.ITypeInformation type, final int numRecords, final Allocator allocator) throws IOException {
+        Preconditions.checkNotNull(type);
+        Preconditions.checkArgument(numRecords > 0);
+        Preconditions.checkArgument(type.size() > 0 && type.size() <= MAX_SEGMENT_BYTES);
+        Preconditions.checkArgument(type.getBaseOffset() == 0, "the type does not start at offset 0");
+        this.type = type;
+        this.recordSize = type.size();
+        this.numRecords = numRecords;
+        this.segmentShift = 31 - Integer.numberOfLeadingZeros(MAX_SEGMENT_BYTES / recordSize);
+        this.segmentMask = (1 << segmentShift) - 1;
+        this.segments = new ByteBuffer[(int) (((long) numRecords + segmentMask) >>> segmentShift)];
+        for (int s = 0; s < segments.length; ++s) {
+            final int records = Math.min(1 << segmentShift, numRecords - (s << segmentShift));
+            segments[s] = allocator.allocate(((long) s << segmentShift) * recordSize, records * recordSize);
+        }
+    }
+
+    private interface Allocator {
+
+        ByteBuffer allocate(long position, int size) throws IOException;
+    }
+
+    /** Allocates numRecords zeroed records in direct memory. */
+    public static RecordBuffer allocate(final Types.ITypeInformation type, final int numRecords) {
+        try {
+            return new RecordBuffer(type, numRecords, new Allocator() {
+
+                @Override
+                public ByteBuffer allocate(final long position, final int size) {
+                    return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Maps numRecords records of the file from position on, in native byte order. */
+    public static RecordBuffer map(final FileChannel channel,
+                                   final FileChannel.MapMode mode,
+                                   final long position,
+                                   final Types.ITypeInformation type,
+                                   final int numRecords) throws IOException {
+        Preconditions.checkNotNull(channel);
+        Preconditions.checkNotNull(mode);
+        return new RecordBuffer(type, numRecords, new Allocator() {
+
+            @Override
+            public ByteBuffer allocate(final long offset, final int size) throws IOException {
+                return channel.map(mode, position + offset, size).order(ByteOrder.nativeOrder());
+            }
+        });
+    }
+
+    // ---------------------------------------------------
+
+    public int getNumberOfRecords() {
+        return numRecords;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /** The field at the selector, the empty selector selects the whole record. */
+    private Types.ITypeInformation field(final int[] selector) {
+        Preconditions.checkNotNull(selector);
+        return selector.length == 0 ? type : type.getField(selector);
+    }
+
+    /** The offset of a field within a record, to be passed to the accessors below. */
+    public int getFieldOffset(final int[] selector) {
+        return field(selector).getBaseOffset();
+    }
+
+    /** The primitive type of a field. */
+    public Types.PrimitiveType getFieldType(final int[] selector) {
+        return primitiveField(selector).type;
+    }
+
+    private Types.PrimitiveTypeInformation primitiveField(final int[] selector) {
+        final Types.ITypeInformation field = field(selector);
+        Preconditions.checkArgument(field instanceof Types.PrimitiveTypeInformation, "no primitive field");
+        return (Types.PrimitiveTypeInformation) field;
+    }
+
+    private ByteBuffer segment(final int record) {
+        Preconditions.checkElementIndex(record, numRecords);
+        return segments[record >>> segmentShift];
+    }
+
+    private int position(final int record, final int offset) {
+        return (record & segmentMask) * recordSize + offset;
+    }
+
+    // ---------------------------------------------------
+    // Access by precomputed offset, the offset must be one of a field of the type.
+
+    public double getDouble(final int record, final int offset) {
+        return segment(record).getDouble(position(record, offset));
+    }
+
+    public void putDouble(final int record, final int offset, final double value) {
+        segment(record).putDouble(position(record, offset), value);
+    }
+
+    public float getFloat(final int record, final int offset) {
+        return segment(record).getFloat(position(record, offset));
+    }
+
+    public void putFloat(final int record, final int offset, final float value) {
+        segment(record).putFloat(position(record, offset), value);
+    }
+
+    public long getLong(final int record, final int offset) {
+        return segment(record).getLong(position(record, offset));
+    }
+
+    public void putLong(final int record, final int offset, final long value) {
+        segment(record).putLong(position(record, offset), value);
+    }
+
+    public int getInt(final int record, final int offset) {
+        return segment(record).getInt(position(record, offset));
+    }
+
+    public void putInt(final int record, final int offset, final int value) {
+        segment(record).putInt(position(record, offset), value);
+    }
+
+    public short getShort(final int record, final int offset) {
+        return segment(record).getShort(position(record, offset));
+    }
+
+    public void putShort(final int record, final int offset, final short value) {
+        segment(record).putShort(position(record, offset), value);
+    }
+
+    // ---------------------------------------------------
+    // Access by selector, checked against the type of the field.
+
+    private int checkedOffset(final int[] selector, final Types.PrimitiveType expected) {
+        final Types.PrimitiveTypeInformation field = primitiveField(selector);
+        Preconditions.checkArgument(field.type == expected, "field is %s, not %s", field.type, expected);
+        return field.baseOffset;
+    }
+
+    public double getDouble(final int record, final int[] selector) {
+        return getDouble(record, checkedOffset(selector, Types.PrimitiveType.DOUBLE));
+    }
+
+    public void putDouble(final int record, final int[] selector, final double value) {
+        putDouble(record, checkedOffset(selector, Types.PrimitiveType.DOUBLE), value);
+    }
+
+    public float getFloat(final int record, final int[] selector) {
+        return getFloat(record, checkedOffset(selector, Types.PrimitiveType.FLOAT));
+    }
+
+    public void putFloat(final int record, final int[] selector, final float value) {
+        putFloat(record, checkedOffset(selector, Types.PrimitiveType.FLOAT), value);
+    }
+
+    public long getLong(final int record, final int[] selector) {
+        return getLong(record, checkedOffset(selector, Types.PrimitiveType.LONG));
+    }
+
+    public void putLong(final int record, final int[] selector, final long value) {
+        putLong(record, checkedOffset(selector, Types.PrimitiveType.LONG), value);
+    }
+
+    public int getInt(final int record, final int[] selector) {
+        return getInt(record, checkedOffset(selector, Types.PrimitiveType.INT));
+    }
+
+    public void putInt(final int record, final int[] selector, final int value) {
+        putInt(record, checkedOffset(selector, Types.PrimitiveType.INT), value);
+    }
+
+    public short getShort(final int record, final int[] selector) {
+        return getShort(record, checkedOffset(selector, Types.PrimitiveType.SHORT));
+    }
+
+    public void putShort(final int record, final int[] selector, final short value) {
+        putShort(record, checkedOffset(selector, Types.PrimitiveType.SHORT), value);
+    }
+
+    // ---------------------------------------------------
+    // Access by generated accessors, see RecordAccessors.
+
+    public double get(final int record, final RecordAccessors.DoubleField field) {
+        return field.get(segment(record), position(record, 0));
+    }
+
+    public void put(final int record, final RecordAccessors.DoubleField field, final double value) {
+        field.put(segment(record), position(record, 0), value);
+    }
+
+    public float get(final int record, final RecordAccessors.FloatField field) {
+        return field.get(segment(record), position(record, 0));
+    }
+
+    public void put(final int record, final RecordAccessors.FloatField field, final float value) {
+        field.put(segment(record), position(record, 0), value);
+    }
+
+    public long get(final int record, final RecordAccessors.LongField field) {
+        return field.get(segment(record), position(record, 0));
+    }
+
+    public void put(final int record, final RecordAccessors.LongField field, final long value) {
+        field.put(segment(record), position(record, 0), value);
+    }
+
+    public int get(final int record, final RecordAccessors.IntField field) {
+        return field.get(segment(record), position(record, 0));
+    }
+
+    public void put(final int record, final RecordAccessors.IntField field, final int value) {
+        field.put(segment(record), position(record, 0), value);
+    }
+
+    public short get(final int record, final RecordAccessors.ShortField field) {
+        return field.get(segment(record), position(record, 0));
+    }
+
+    public void put(final int record, final RecordAccessors.ShortField field, final short value) {
+        field.put(segment(record), position(record, 0), value);
+    }
+
+    /** Reads the double fields of the reader into out, which must hold getNumberOfFields() values. */
+    public void read(final int record, final RecordAccessors.DoubleRowReader reader, final double[] out) {
+        Preconditions.checkArgument(out.length >= reader.getNumberOfFields());
+        reader.read(segment(record), position(record, 0), out);
+    }
+}
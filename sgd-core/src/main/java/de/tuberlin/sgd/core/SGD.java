@@ -1,5 +1,19 @@
 package de.tuberlin.sgd.core;
 
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 public final class SGD {
 
     // Disallow instantiation.
@@ -15,9 +29,13 @@ public final class SGD {
          *      + Square loss: L(y, y') = 0.5 * (p - y)²
          *      + Hinge loss: L(y, y') = max{0, 1 − y * y'}
          *      + Exponential loss: L(y, y') = exp(− y * y')
-         *      + Logistic loss: L(y, y') = log2(1 + exp(−y * y'))
+         *      + Logistic loss: L(y, y') = log(1 + exp(−y * y'))
          *
          * (All of these are convex upper bounds on 0-1 loss)
+         *
+         * For robust regression:
+         *      + Huber loss: L(y, y') = 0.5 * (p - y)² if |p - y| <= c, else c * |p - y| - 0.5 * c²
+         *      + Epsilon-insensitive loss: L(y, y') = max{0, |y - p| - ε}
          */
 
         /** Evaluate the loss function. */
@@ -44,6 +62,409 @@ public final class SGD {
         }
     }
 
+    /**
+     * Hinge loss used by linear support vector machines, labels are -1 or 1.
+     */
+    public static class HingeLossFunction implements ConvexLossFunction {
+
+        /** The margin, 1 is the SVM hinge, 0 the perceptron loss. */
+        public final double threshold;
+
+        public HingeLossFunction() {
+            this(1.0);
+        }
+
+        public HingeLossFunction(final double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public double loss(double p, double y) {
+            return Math.max(0.0, threshold - p * y);
+        }
+
+        @Override
+        public double dloss(double p, double y) {
+            return p * y <= threshold ? -y : 0.0;
+        }
+    }
+
+    /**
+     * Logistic loss used by logistic regression, labels are -1 or 1.
+     */
+    public static class LogLossFunction implements ConvexLossFunction {
+
+        @Override
+        public double loss(double p, double y) {
+            final double z = p * y;
+            // Cut off large margins, exp would overflow.
+            if (z > 18.0)
+                return Math.exp(-z);
+            if (z < -18.0)
+                return -z;
+            return Math.log(1.0 + Math.exp(-z));
+        }
+
+        @Override
+        public double dloss(double p, double y) {
+            final double z = p * y;
+            if (z > 18.0)
+                return -y * Math.exp(-z);
+            if (z < -18.0)
+                return -y;
+            return -y / (Math.exp(z) + 1.0);
+        }
+    }
+
+    /**
+     * Exponential loss as used by AdaBoost, labels are -1 or 1.
+     */
+    public static class ExponentialLossFunction implements ConvexLossFunction {
+
+        @Override
+        public double loss(double p, double y) {
+            return Math.exp(-p * y);
+        }
+
+        @Override
+        public double dloss(double p, double y) {
+            return -y * Math.exp(-p * y);
+        }
+    }
+
+    /**
+     * Huber loss, less sensitive to outliers than the squared loss.
+     */
+    public static class HuberLossFunction implements ConvexLossFunction {
+
+        /** Residuals beyond c are penalized linearly. */
+        public final double c;
+
+        public HuberLossFunction() {
+            this(0.1);
+        }
+
+        public HuberLossFunction(final double c) {
+            Preconditions.checkArgument(c > 0.0);
+            this.c = c;
+        }
+
+        @Override
+        public double loss(double p, double y) {
+            final double r = Math.abs(p - y);
+            return r <= c ? 0.5 * r * r : c * r - 0.5 * c * c;
+        }
+
+        @Override
+        public double dloss(double p, double y) {
+            final double r = p - y;
+            return r > c ? c : (r < -c ? -c : r);
+        }
+    }
+
+    /**
+     * Epsilon-insensitive loss used by support vector regression.
+     */
+    public static class EpsilonInsensitiveLossFunction implements ConvexLossFunction {
+
+        /** Residuals up to epsilon are not penalized. */
+        public final double epsilon;
+
+        public EpsilonInsensitiveLossFunction() {
+            this(0.1);
+        }
+
+        public EpsilonInsensitiveLossFunction(final double epsilon) {
+            Preconditions.checkArgument(epsilon >= 0.0);
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public double loss(double p, double y) {
+            return Math.max(0.0, Math.abs(y - p) - epsilon);
+        }
+
+        @Override
+        public double dloss(double p, double y) {
+            final double r = p - y;
+            return r > epsilon ? 1.0 : (r < -epsilon ? -1.0 : 0.0);
+        }
+    }
+
+    /**
+     * Learning rate schedules, t is the number of updates done so far.
+     */
+    public static enum LearningRate {
+
+        /** eta = eta0 */
+        CONSTANT,
+
+        /** eta = eta0 / t^powerT */
+        INVERSE_SCALING,
+
+        /** eta = 1 / (lambda * (t0 + t)), with t0 chosen by Bottou's heuristic. */
+        OPTIMAL,
+
+        /**
+         * eta = eta0, divided by 5 every time the loss reaches a plateau. The
+         * plateaus are found with the tolerance, which has to be set.
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * Penalties added to the loss, lambda is their strength. The bias is
+     * never penalized.
+     */
+    public static enum Penalty {
+
+        NONE,
+
+        /** lambda / 2 * |w|² */
+        L2,
+
+        /** lambda * |w|_1, applied as a truncated gradient. */
+        L1,
+
+        /** lambda * (l1Ratio * |w|_1 + (1 - l1Ratio) / 2 * |w|²) */
+        ELASTICNET
+    }
+
+    /**
+     * The learning rate of every single update. A final class with no virtual
+     * calls, so next() is inlined into the kernel loops and allocates nothing.
+     */
+    public static final class LearningRateSchedule {
+
+        public final LearningRate type;
+
+        private double eta0;
+
+        private final double powerT;
+
+        private final double lambda;
+
+        private final double t0;
+
+        /** How far t moves per update, > 1 if the updates are spread over several workers. */
+        private final int stride;
+
+        private double t;
+
+        public LearningRateSchedule(final LearningRate type,
+                                    final double eta0,
+                                    final double powerT,
+                                    final double lambda,
+                                    final double t0) {
+            this(type, eta0, powerT, lambda, t0, 1.0, 1);
+        }
+
+        private LearningRateSchedule(final LearningRate type,
+                                     final double eta0,
+                                     final double powerT,
+                                     final double lambda,
+                                     final double t0,
+                                     final double t,
+                                     final int stride) {
+            Preconditions.checkNotNull(type);
+            Preconditions.checkArgument(eta0 > 0.0 || type == LearningRate.OPTIMAL);
+            Preconditions.checkArgument(lambda > 0.0 || type != LearningRate.OPTIMAL);
+            this.type = type;
+            this.eta0 = eta0;
+            this.powerT = powerT;
+            this.lambda = lambda;
+            this.t0 = t0;
+            this.t = t;
+            this.stride = stride;
+        }
+
+        public static LearningRateSchedule constant(final double eta0) {
+            return new LearningRateSchedule(LearningRate.CONSTANT, eta0, 0.0, 0.0, 0.0);
+        }
+
+        /** Returns the learning rate of the next update. */
+        public double next() {
+            final double eta;
+            switch (type) {
+                case INVERSE_SCALING:
+                    eta = eta0 / Math.pow(t, powerT);
+                    break;
+                case OPTIMAL:
+                    eta = 1.0 / (lambda * (t0 + t));
+                    break;
+                default:
+                    eta = eta0;
+            }
+            t += stride;
+            return eta;
+        }
+
+        /**
+         * The schedule of one of numWorkers workers that share the updates. The
+         * worker copies interleave their t, so together they count like one schedule.
+         */
+        public LearningRateSchedule forWorker(final int worker, final int numWorkers) {
+            Preconditions.checkArgument(worker >= 0 && worker < numWorkers);
+            return new LearningRateSchedule(type, eta0, powerT, lambda, t0, t + worker * stride, stride * numWorkers);
+        }
+
+        /** Divides the learning rate of the adaptive schedule by 5. */
+        public void decay() {
+            Preconditions.checkState(type == LearningRate.ADAPTIVE);
+            eta0 /= 5.0;
+        }
+
+        public double getEta0() {
+            return eta0;
+        }
+    }
+
+    /**
+     * The order in which an epoch visits the rows.
+     */
+    public static enum Shuffle {
+
+        /** Rows in frame order. */
+        NONE,
+
+        /** Rows in a new random order every epoch, a mini-batch is kept together. */
+        ROWS,
+
+        /** Blocks of rows in a new random order every epoch, rows within a block stay in order. */
+        BLOCKS
+    }
+
+    /**
+     * A permutation of the units of a row range, a unit being a row, a mini-batch
+     * or a block of rows. The permutation array is allocated once and shuffled in
+     * place every epoch with a seeded SplitMix64 generator, so the order only
+     * depends on the seed.
+     */
+    public static final class RowOrder {
+
+        private final int from;
+
+        private final int to;
+
+        private final int unitSize;
+
+        private final int[] units;
+
+        private long state;
+
+        public RowOrder(final int from, final int to, final int unitSize, final long seed) {
+            Preconditions.checkArgument(from >= 0 && from <= to);
+            Preconditions.checkArgument(unitSize > 0);
+            this.from = from;
+            this.to = to;
+            this.unitSize = unitSize;
+            this.units = new int[(int) (((long) to - from + unitSize - 1) / unitSize)];
+            for (int k = 0; k < units.length; ++k)
+                units[k] = k;
+            this.state = seed;
+        }
+
+        private long nextLong() {
+            long z = (state += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        /** Uniform in [0, bound), from the upper 31 bits of the next long. */
+        private int nextInt(final int bound) {
+            return (int) (((nextLong() >>> 33) * bound) >>> 31);
+        }
+
+        /** Fisher-Yates shuffle of the units. */
+        public void shuffle() {
+            for (int k = units.length - 1; k > 0; --k) {
+                final int r = nextInt(k + 1);
+                final int unit = units[k];
+                units[k] = units[r];
+                units[r] = unit;
+            }
+        }
+
+        public int getNumUnits() {
+            return units.length;
+        }
+
+        /** The first row of the k-th unit in the current order. */
+        public int start(final int k) {
+            return from + units[k] * unitSize;
+        }
+
+        /** The row after the last row of the k-th unit in the current order. */
+        public int end(final int k) {
+            return Math.min(start(k) + unitSize, to);
+        }
+    }
+
+    /**
+     * Records the loss of every epoch and decides when training has converged:
+     * once the loss failed to improve on the best loss seen so far by more than
+     * the tolerance for patience epochs in a row.
+     */
+    public static final class ConvergenceTracker {
+
+        public final double tolerance;
+
+        public final int patience;
+
+        private final double[] losses;
+
+        private int numEpochs;
+
+        private double bestLoss = Double.POSITIVE_INFINITY;
+
+        private int numEpochsNoImprovement;
+
+        public ConvergenceTracker(final double tolerance, final int patience, final int maxEpochs) {
+            Preconditions.checkArgument(!Double.isNaN(tolerance));
+            Preconditions.checkArgument(patience > 0);
+            Preconditions.checkArgument(maxEpochs > 0);
+            this.tolerance = tolerance;
+            this.patience = patience;
+            this.losses = new double[maxEpochs];
+        }
+
+        /** Records the loss of the next epoch, returns true if training should stop. */
+        public boolean update(final double loss) {
+            Preconditions.checkState(numEpochs < losses.length);
+            losses[numEpochs++] = loss;
+            if (loss > bestLoss - tolerance)
+                ++numEpochsNoImprovement;
+            else
+                numEpochsNoImprovement = 0;
+            if (loss < bestLoss)
+                bestLoss = loss;
+            return hasConverged();
+        }
+
+        public boolean hasConverged() {
+            return numEpochsNoImprovement >= patience;
+        }
+
+        public int getNumEpochs() {
+            return numEpochs;
+        }
+
+        public double getLoss(final int epoch) {
+            Preconditions.checkArgument(epoch >= 0 && epoch < numEpochs);
+            return losses[epoch];
+        }
+
+        public double getBestLoss() {
+            return bestLoss;
+        }
+
+        /** Starts counting the epochs without improvement from zero again. */
+        public void resetPatience() {
+            numEpochsNoImprovement = 0;
+        }
+    }
+
     /**
      * Base class for SGD classification and regression.
      */
@@ -55,9 +476,294 @@ public final class SGD {
         /** The initial learning rate. */
         protected double alpha = 0.005;
 
+        /** The learning rate schedule. */
+        protected LearningRate learningRate = LearningRate.CONSTANT;
+
+        /** The exponent of the inverse scaling learning rate. */
+        protected double powerT = 0.25;
+
+        /** The regularization strength, the optimal learning rate is derived from it. */
+        protected double lambda = 1e-4;
+
+        /** The penalty, none by default. */
+        protected Penalty penalty = Penalty.NONE;
+
+        /** The share of L1 in the elastic net penalty. */
+        protected double l1Ratio = 0.15;
+
+        /** The optimizer that applies the gradients, plain SGD by default. */
+        protected SGDOptimizers.Method optimizer = SGDOptimizers.Method.PLAIN;
+
+        /**
+         * If true the fit returns the average of all iterates instead of the last
+         * one (ASGD). Needs the plain optimizer and a single thread.
+         */
+        protected boolean average = false;
+
+        /** The adaptive learning rate stops training once it falls below this. */
+        public static final double MIN_ADAPTIVE_LEARNING_RATE = 1e-6;
+
         /** The number of passes over the training data (aka epochs). */
         protected int numIterations = 13000;
 
+        /** The number of samples per gradient update, 1 is plain per-sample SGD. */
+        protected int batchSize = 1;
+
+        /** The number of worker threads, more than one trains Hogwild style. */
+        protected int numThreads = 1;
+
+        /** A tolerance that never stops training early. */
+        public static final double NO_TOLERANCE = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Training stops when the epoch loss did not improve by more than this
+         * for patience epochs. Off by default, a fit runs all numIterations
+         * epochs unless a tolerance is set.
+         */
+        protected double tolerance = NO_TOLERANCE;
+
+        /** The number of epochs without improvement before training stops. */
+        protected int patience = 5;
+
+        /**
+         * If true small problems train with kernels compiled for the loss and
+         * the number of features, see SGDKernelCompiler. Off by default, the
+         * compiled epochs are not reliably faster than the generic kernels,
+         * measure with SGDRegressorBenchmark before turning them on.
+         */
+        protected boolean compileKernels = false;
+
+        /**
+         * The fraction of rows held out at the end of the frame. If non-zero the
+         * loss on these rows decides about early stopping, else the mean training
+         * loss of the epoch does.
+         */
+        protected double validationFraction = 0.0;
+
+        /** The order in which the rows are visited, frame order by default. */
+        protected Shuffle shuffle = Shuffle.NONE;
+
+        /** The number of rows of a block for Shuffle.BLOCKS. */
+        protected int shuffleBlockSize = 1024;
+
+        /** The seed of the shuffle, a fit with the same seed visits the rows in the same order. */
+        protected long seed = 0;
+
+        /** The convergence of the last fit. */
+        protected ConvergenceTracker convergenceTracker;
+
+        public void setLossFunction(final ConvexLossFunction lossFunction) {
+            Preconditions.checkNotNull(lossFunction);
+            this.lossFunction = lossFunction;
+        }
+
+        public void setAlpha(final double alpha) {
+            Preconditions.checkArgument(alpha > 0.0);
+            this.alpha = alpha;
+        }
+
+        public void setLearningRate(final LearningRate learningRate) {
+            Preconditions.checkNotNull(learningRate);
+            this.learningRate = learningRate;
+        }
+
+        public void setPowerT(final double powerT) {
+            this.powerT = powerT;
+        }
+
+        public void setLambda(final double lambda) {
+            Preconditions.checkArgument(lambda >= 0.0);
+            this.lambda = lambda;
+        }
+
+        public void setOptimizer(final SGDOptimizers.Method optimizer) {
+            Preconditions.checkNotNull(optimizer);
+            this.optimizer = optimizer;
+        }
+
+        public void setAverage(final boolean average) {
+            this.average = average;
+        }
+
+        public void setPenalty(final Penalty penalty) {
+            Preconditions.checkNotNull(penalty);
+            this.penalty = penalty;
+        }
+
+        public void setL1Ratio(final double l1Ratio) {
+            Preconditions.checkArgument(l1Ratio >= 0.0 && l1Ratio <= 1.0);
+            this.l1Ratio = l1Ratio;
+        }
+
+        public void setNumIterations(final int numIterations) {
+            Preconditions.checkArgument(numIterations > 0);
+            this.numIterations = numIterations;
+        }
+
+        public void setBatchSize(final int batchSize) {
+            Preconditions.checkArgument(batchSize > 0);
+            this.batchSize = batchSize;
+        }
+
+        public void setNumThreads(final int numThreads) {
+            Preconditions.checkArgument(numThreads > 0);
+            this.numThreads = numThreads;
+        }
+
+        public void setTolerance(final double tolerance) {
+            Preconditions.checkArgument(!Double.isNaN(tolerance));
+            this.tolerance = tolerance;
+        }
+
+        public void setPatience(final int patience) {
+            Preconditions.checkArgument(patience > 0);
+            this.patience = patience;
+        }
+
+        public void setValidationFraction(final double validationFraction) {
+            Preconditions.checkArgument(validationFraction >= 0.0 && validationFraction < 1.0);
+            this.validationFraction = validationFraction;
+        }
+
+        public void setShuffle(final Shuffle shuffle) {
+            Preconditions.checkNotNull(shuffle);
+            this.shuffle = shuffle;
+        }
+
+        public void setShuffleBlockSize(final int shuffleBlockSize) {
+            Preconditions.checkArgument(shuffleBlockSize > 0);
+            this.shuffleBlockSize = shuffleBlockSize;
+        }
+
+        public void setSeed(final long seed) {
+            this.seed = seed;
+        }
+
+        public void setCompileKernels(final boolean compileKernels) {
+            this.compileKernels = compileKernels;
+        }
+
+        public ConvergenceTracker getConvergenceTracker() {
+            return convergenceTracker;
+        }
+
+        /** Creates the learning rate schedule for one fit. */
+        protected LearningRateSchedule newLearningRateSchedule() {
+            Preconditions.checkState(learningRate != LearningRate.ADAPTIVE || tolerance != NO_TOLERANCE,
+                    "the adaptive learning rate needs a tolerance to find plateaus");
+            double t0 = 0.0;
+            if (learningRate == LearningRate.OPTIMAL) {
+                // Bottou's heuristic: start with a rate that keeps a typical weight stable.
+                final double typw = Math.sqrt(1.0 / Math.sqrt(lambda));
+                final double initialEta0 = typw / Math.max(1.0, Math.abs(lossFunction.dloss(-typw, 1.0)));
+                t0 = 1.0 / (initialEta0 * lambda);
+            }
+            return new LearningRateSchedule(learningRate, alpha, powerT, lambda, t0);
+        }
+
+        /**
+         * Creates the optimizer for one fit. Averaging and the penalties are
+         * implemented on top of plain SGD only.
+         */
+        protected SGDOptimizers.Optimizer newOptimizer(final int numParams) {
+            if (average) {
+                Preconditions.checkState(optimizer == SGDOptimizers.Method.PLAIN, "averaging needs the plain optimizer");
+                Preconditions.checkState(penalty == Penalty.NONE, "averaging does not support a penalty");
+                Preconditions.checkState(numThreads == 1, "averaging needs a single thread");
+                return new SGDOptimizers.AveragedOptimizer(numParams);
+            }
+            switch (penalty) {
+                case NONE:
+                    return SGDOptimizers.create(optimizer, numParams);
+                case L2:
+                    return newRegularizedOptimizer(numParams, 0.0, lambda);
+                case L1:
+                    return newRegularizedOptimizer(numParams, lambda, 0.0);
+                case ELASTICNET:
+                    return newRegularizedOptimizer(numParams, lambda * l1Ratio, lambda * (1.0 - l1Ratio));
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        private SGDOptimizers.Optimizer newRegularizedOptimizer(final int numParams, final double l1, final double l2) {
+            Preconditions.checkState(optimizer == SGDOptimizers.Method.PLAIN, "penalties need the plain optimizer");
+            return new SGDOptimizers.RegularizedOptimizer(numParams, l1, l2);
+        }
+
+        /** Creates the kernel of a fit, a compiled one if there is one for the loss, the optimizer and the columns. */
+        protected SGDKernels.Kernel newKernel(final ConvexLossFunction lossFunction,
+                                              final SGDKernels.Columns columns,
+                                              final SGDOptimizers.Optimizer optimizer) {
+            if (compileKernels)
+                return SGDKernels.compiledForLoss(lossFunction, optimizer, columns);
+            return SGDKernels.forLoss(lossFunction, columns);
+        }
+
+        /**
+         * Records the loss of an epoch and returns true if training should stop.
+         * The adaptive schedule does not stop at a plateau, it decays the learning
+         * rate of all worker schedules and goes on until the rate is too small.
+         */
+        protected static boolean hasConverged(
+                final ConvergenceTracker tracker,
+                final double loss,
+                final LearningRateSchedule[] schedules) {
+
+            if (!tracker.update(loss))
+                return false;
+            if (schedules[0].type != LearningRate.ADAPTIVE)
+                return true;
+            for (final LearningRateSchedule schedule : schedules)
+                schedule.decay();
+            if (schedules[0].getEta0() < MIN_ADAPTIVE_LEARNING_RATE)
+                return true;
+            tracker.resetPatience();
+            return false;
+        }
+
+        /**
+         * Creates the row order of one worker over the rows [from, to), null for
+         * frame order. Mini-batches are never split, so a block is rounded up to
+         * a multiple of the batch size.
+         */
+        protected RowOrder newRowOrder(final int from, final int to, final int worker) {
+            switch (shuffle) {
+                case NONE:
+                    return null;
+                case ROWS:
+                    return new RowOrder(from, to, batchSize, seed + worker);
+                case BLOCKS:
+                    return new RowOrder(from, to, (shuffleBlockSize + batchSize - 1) / batchSize * batchSize, seed + worker);
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        /** The number of training rows, the rest is held out for validation. */
+        protected int numTrainingSamples(final int numSamples) {
+            final int numTrain = numSamples - (int) (numSamples * validationFraction);
+            Preconditions.checkState(numTrain > 0);
+            return numTrain;
+        }
+
+        /**
+         * The loss early stopping looks at: the mean loss on the held-out rows
+         * if there are any, else the mean training loss of the epoch.
+         */
+        protected static double epochLoss(
+                final SGDKernels.Kernel kernel,
+                final double[] w,
+                final SGDKernels.Columns columns,
+                final double trainingLoss,
+                final int numTrain) {
+
+            if (numTrain < columns.numSamples)
+                return kernel.loss(w, columns, numTrain, columns.numSamples) / (columns.numSamples - numTrain);
+            else
+                return trainingLoss / numTrain;
+        }
+
         /** Fit linear model. */
         public abstract DVector fit(
                 final DVector params,
@@ -67,11 +773,77 @@ public final class SGD {
                 final int numSamples);
 
         /** Predict using the linear model. */
-        public abstract DVector predict(
+        public DVector predict(
                 final DVector params,
                 final DVectorFrame frame,
                 final int[] X_indices,
-                final int numSamples);
+                final int numSamples) {
+            return predict(params, frame, X_indices, numSamples, new DVector(numSamples));
+        }
+
+        /**
+         * Predict using the linear model, writing into the given output vector.
+         * Frames with at least PARALLEL_PREDICT_THRESHOLD rows are split across
+         * all cores, smaller ones are scored on the calling thread.
+         */
+        public DVector predict(
+                final DVector params,
+                final DVectorFrame frame,
+                final int[] X_indices,
+                final int numSamples,
+                final DVector output) {
+
+            Preconditions.checkNotNull(params);
+            Preconditions.checkNotNull(X_indices);
+            Preconditions.checkNotNull(output);
+            Preconditions.checkArgument(params.elements.length == X_indices.length + 1);
+            Preconditions.checkArgument(output.elements.length >= numSamples);
+
+            final SGDKernels.Columns columns = SGDKernels.Columns.resolve(frame, X_indices, -1, numSamples);
+            if (numSamples < PARALLEL_PREDICT_THRESHOLD)
+                SGDKernels.predict(params.elements, columns, 0, numSamples, output.elements);
+            else
+                doParallelPredict(params.elements, columns, output.elements);
+            return output;
+        }
+
+        /** The number of rows from which predict uses all cores. */
+        public static final int PARALLEL_PREDICT_THRESHOLD = 1 << 16;
+
+        /** Shared by all predict calls, created on first use. */
+        private static final class PredictPool {
+
+            static final ForkJoinPool INSTANCE = new ForkJoinPool();
+        }
+
+        private static void doParallelPredict(
+                final double[] w,
+                final SGDKernels.Columns columns,
+                final double[] out) {
+
+            final int numChunks = PredictPool.INSTANCE.getParallelism();
+            // Chunk boundaries fall on predict blocks.
+            final int numBlocks = (columns.numSamples + SGDKernels.PREDICT_BLOCK_SIZE - 1) / SGDKernels.PREDICT_BLOCK_SIZE;
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (int c = 0; c < numChunks; ++c) {
+                final int from = Math.min((int) ((long) numBlocks * c / numChunks) * SGDKernels.PREDICT_BLOCK_SIZE, columns.numSamples);
+                final int to = Math.min((int) ((long) numBlocks * (c + 1) / numChunks) * SGDKernels.PREDICT_BLOCK_SIZE, columns.numSamples);
+                tasks.add(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        SGDKernels.predict(w, columns, from, to, out);
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (final Future<Void> future : PredictPool.INSTANCE.invokeAll(tasks))
+                    future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
 
     /**
@@ -87,67 +859,306 @@ public final class SGD {
                 final int Y_index,
                 final int numSamples) {
 
+            convergenceTracker = new ConvergenceTracker(tolerance, patience, numIterations);
             return doPlainSGD(
                     params,
                     frame,
                     X_indices,
                     Y_index,
                     lossFunction,
-                    alpha,
+                    newLearningRateSchedule(),
+                    newOptimizer(params.elements.length),
                     numIterations,
+                    batchSize,
+                    numThreads,
+                    convergenceTracker,
+                    numTrainingSamples(numSamples),
                     numSamples
             );
         }
 
-        @Override
-        public DVector predict(
-                final DVector params,
-                final DVectorFrame frame,
-                final int[] X_indices,
-                final int numSamples) {
-            return null;
-        }
-
         private DVector doPlainSGD(
                 final DVector params,
                 final DVectorFrame frame,
                 final int[] X_indices,
                 final int Y_index,
                 final ConvexLossFunction lossFunction,
-                final double alpha,
+                final LearningRateSchedule schedule,
+                final SGDOptimizers.Optimizer optimizer,
                 final int numIterations,
+                final int batchSize,
+                final int numThreads,
+                final ConvergenceTracker tracker,
+                final int numTrain,
                 final int numSamples) {
 
-            if (lossFunction instanceof SquaredLossFunction) {
+            Preconditions.checkNotNull(params);
+            Preconditions.checkNotNull(X_indices);
+            Preconditions.checkArgument(params.elements.length == X_indices.length + 1);
+
+            // Resolve the columns once, the kernel works on raw arrays.
+            final SGDKernels.Columns columns = SGDKernels.Columns.resolve(frame, X_indices, Y_index, numSamples);
+            final SGDKernels.Kernel kernel = newKernel(lossFunction, columns, optimizer);
 
+            if (numThreads == 1) {
+                // Residual buffer of one block, reused across all epochs.
+                final double[] residuals = new double[batchSize];
+                final LearningRateSchedule[] schedules = new LearningRateSchedule[] {schedule};
+                final RowOrder order = newRowOrder(0, numTrain, 0);
                 for (int epoch = 0; epoch < numIterations; ++epoch) {
+                    final double loss = runEpoch(kernel, params.elements, columns, 0, numTrain, order, schedule, optimizer, residuals);
+                    if (hasConverged(tracker, epochLoss(kernel, params.elements, columns, loss, numTrain), schedules))
+                        break;
+                }
+            } else
+                doHogwildSGD(kernel, params.elements, columns, schedule, optimizer, numIterations, batchSize, numThreads, tracker, numTrain);
 
-                    for (int i = 0; i < numSamples; ++i) {
+            // Early stopping looks at the iterates, the result is their average.
+            if (optimizer instanceof SGDOptimizers.AveragedOptimizer)
+                ((SGDOptimizers.AveragedOptimizer) optimizer).average(params.elements);
 
-                        // -- Compute the prediction (p) --
+            return params;
+        }
 
-                        // Dot product of a sample x and the parameter vector.
-                        int m = 1;
-                        double p = params.elements[0];
-                        for (int j : X_indices)
-                            p += frame.getVec(j).elements[i] * params.elements[m++];
+        /**
+         * Hogwild: every worker runs over its own disjoint slice of rows and
+         * updates the shared parameters without any locking. The workers only
+         * meet at a barrier between epochs, so no slice runs ahead of the others
+         * and the convergence check sees the loss of a whole epoch. Every worker
+         * has its own copy of the optimizer state.
+         */
+        private void doHogwildSGD(
+                final SGDKernels.Kernel kernel,
+                final double[] w,
+                final SGDKernels.Columns columns,
+                final LearningRateSchedule schedule,
+                final SGDOptimizers.Optimizer optimizer,
+                final int numIterations,
+                final int batchSize,
+                final int numThreads,
+                final ConvergenceTracker tracker,
+                final int numTrain) {
 
-                        // -- Minimize the loss function --
+            final double[] sliceLosses = new double[numThreads];
+            final LearningRateSchedule[] schedules = new LearningRateSchedule[numThreads];
+            final SGDOptimizers.Optimizer[] optimizers = new SGDOptimizers.Optimizer[numThreads];
+            for (int t = 0; t < numThreads; ++t) {
+                schedules[t] = schedule.forWorker(t, numThreads);
+                optimizers[t] = t == 0 ? optimizer : optimizer.copy();
+            }
+            final boolean[] converged = new boolean[1];
+            final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            // The barrier action runs once per epoch, after all slices are done.
+            final CyclicBarrier barrier = new CyclicBarrier(numThreads, new Runnable() {
 
-                        // Compute parameter Θ(0).
-                        params.elements[0] = params.elements[0] - alpha * lossFunction.dloss(p, frame.getVec(Y_index).elements[i]);
+                @Override
+                public void run() {
+                    double loss = 0.0;
+                    for (final double sliceLoss : sliceLosses)
+                        loss += sliceLoss;
+                    converged[0] = hasConverged(tracker, epochLoss(kernel, w, columns, loss, numTrain), schedules);
+                }
+            });
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < numThreads; ++t) {
+                    final int slice = t;
+                    final int from = (int) ((long) numTrain * t / numThreads);
+                    final int to = (int) ((long) numTrain * (t + 1) / numThreads);
+                    final RowOrder order = newRowOrder(from, to, t);
+                    futures.add(executor.submit(new Runnable() {
 
-                        // Compute parameters Θ(1..m).
-                        int n = 1;
-                        for (int k : X_indices) {
-                            params.elements[n] = params.elements[n] - alpha * lossFunction.dloss(p, frame.getVec(Y_index).elements[i]) * frame.getVec(k).elements[i];
-                            n++;
+                        @Override
+                        public void run() {
+                            final double[] residuals = new double[batchSize];
+                            try {
+                                for (int epoch = 0; epoch < numIterations && !converged[0]; ++epoch) {
+                                    sliceLosses[slice] = runEpoch(kernel, w, columns, from, to, order, schedules[slice], optimizers[slice], residuals);
+                                    barrier.await();
+                                }
+                            } catch (InterruptedException | BrokenBarrierException e) {
+                                throw new IllegalStateException(e);
+                            } catch (RuntimeException e) {
+                                // Release the workers waiting for this one.
+                                barrier.reset();
+                                throw e;
+                            }
                         }
-                    }
+                    }));
                 }
+                for (final Future<?> future : futures)
+                    future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                executor.shutdown();
+            }
+        }
 
-            } else
-                throw new IllegalStateException();
+        /**
+         * Runs one epoch over the rows [from, to), unit by unit in a freshly
+         * shuffled row order, or in frame order if the order is null.
+         */
+        protected static double runEpoch(
+                final SGDKernels.Kernel kernel,
+                final double[] w,
+                final SGDKernels.Columns columns,
+                final int from,
+                final int to,
+                final RowOrder order,
+                final LearningRateSchedule schedule,
+                final SGDOptimizers.Optimizer optimizer,
+                final double[] residuals) {
+
+            if (order == null)
+                return runEpoch(kernel, w, columns, from, to, schedule, optimizer, residuals);
+            order.shuffle();
+            double loss = 0.0;
+            for (int k = 0; k < order.getNumUnits(); ++k)
+                loss += runEpoch(kernel, w, columns, order.start(k), order.end(k), schedule, optimizer, residuals);
+            return loss;
+        }
+
+        protected static double runEpoch(
+                final SGDKernels.Kernel kernel,
+                final double[] w,
+                final SGDKernels.Columns columns,
+                final int from,
+                final int to,
+                final LearningRateSchedule schedule,
+                final SGDOptimizers.Optimizer optimizer,
+                final double[] residuals) {
+
+            if (residuals.length == 1)
+                return kernel.epoch(w, columns, from, to, schedule, optimizer);
+            else
+                return kernel.batchEpoch(w, columns, from, to, schedule, optimizer, residuals);
+        }
+    }
+
+    /**
+     * Linear classifier fitted with SGD, a linear SVM by default. Labels are -1
+     * or 1, predict returns the signed distance to the separating hyperplane.
+     */
+    public static class SGDClassifier extends SGDRegressor {
+
+        public SGDClassifier() {
+            this.lossFunction = new HingeLossFunction();
+        }
+    }
+
+    /**
+     * Parallel SGD with model averaging. The rows are split into a fixed number
+     * of partitions, each partition trains its own copy of the parameters and
+     * the copies are averaged every few epochs. Nothing is shared between the
+     * workers while they run, so the result only depends on the partitioning.
+     */
+    public static class ParallelSGDRegressor extends SGDRegressor {
+
+        /** The number of row partitions, each trains its own parameter copy. */
+        protected int numPartitions = Runtime.getRuntime().availableProcessors();
+
+        /** The number of epochs between two averaging steps. */
+        protected int averagingInterval = 1;
+
+        public void setNumPartitions(final int numPartitions) {
+            Preconditions.checkArgument(numPartitions > 0);
+            this.numPartitions = numPartitions;
+        }
+
+        public void setAveragingInterval(final int averagingInterval) {
+            Preconditions.checkArgument(averagingInterval > 0);
+            this.averagingInterval = averagingInterval;
+        }
+
+        @Override
+        public DVector fit(
+                final DVector params,
+                final DVectorFrame frame,
+                final int[] X_indices,
+                final int Y_index,
+                final int numSamples) {
+
+            Preconditions.checkNotNull(params);
+            Preconditions.checkNotNull(X_indices);
+            Preconditions.checkArgument(params.elements.length == X_indices.length + 1);
+            Preconditions.checkState(!average, "averaging needs a single thread");
+
+            final SGDKernels.Columns columns = SGDKernels.Columns.resolve(frame, X_indices, Y_index, numSamples);
+            final double[] w = params.elements;
+            final double[][] partitionParams = new double[numPartitions][w.length];
+            final double[][] partitionResiduals = new double[numPartitions][batchSize];
+            final double[] partitionLosses = new double[numPartitions];
+            final LearningRateSchedule schedule = newLearningRateSchedule();
+            final LearningRateSchedule[] partitionSchedules = new LearningRateSchedule[numPartitions];
+            // The optimizer state of a partition is kept across rounds, it is not
+            // averaged. Only state tied to the old w, the L1 penalty so far, is reset.
+            final SGDOptimizers.Optimizer[] partitionOptimizers = new SGDOptimizers.Optimizer[numPartitions];
+            for (int k = 0; k < numPartitions; ++k) {
+                partitionSchedules[k] = schedule.forWorker(k, numPartitions);
+                partitionOptimizers[k] = newOptimizer(w.length);
+            }
+            final SGDKernels.Kernel kernel = newKernel(lossFunction, columns, partitionOptimizers[0]);
+            final int numTrain = numTrainingSamples(numSamples);
+            final RowOrder[] partitionOrders = new RowOrder[numPartitions];
+            for (int k = 0; k < numPartitions; ++k)
+                partitionOrders[k] = newRowOrder((int) ((long) numTrain * k / numPartitions), (int) ((long) numTrain * (k + 1) / numPartitions), k);
+            convergenceTracker = new ConvergenceTracker(tolerance, patience, numIterations);
+
+            final ForkJoinPool pool = new ForkJoinPool(Math.min(numPartitions, Runtime.getRuntime().availableProcessors()));
+            try {
+                for (int epoch = 0; epoch < numIterations; epoch += averagingInterval) {
+
+                    // Every partition starts the round from the current average.
+                    for (int k = 0; k < numPartitions; ++k) {
+                        System.arraycopy(w, 0, partitionParams[k], 0, w.length);
+                        partitionOptimizers[k].paramsReplaced();
+                    }
+
+                    final int roundLength = Math.min(averagingInterval, numIterations - epoch);
+                    final List<Callable<Void>> tasks = new ArrayList<>();
+                    for (int k = 0; k < numPartitions; ++k) {
+                        final int partition = k;
+                        final double[] local = partitionParams[k];
+                        final double[] residuals = partitionResiduals[k];
+                        final LearningRateSchedule partitionSchedule = partitionSchedules[k];
+                        final SGDOptimizers.Optimizer partitionOptimizer = partitionOptimizers[k];
+                        final int from = (int) ((long) numTrain * k / numPartitions);
+                        final int to = (int) ((long) numTrain * (k + 1) / numPartitions);
+                        final RowOrder order = partitionOrders[k];
+                        tasks.add(new Callable<Void>() {
+
+                            @Override
+                            public Void call() {
+                                for (int e = 0; e < roundLength; ++e)
+                                    partitionLosses[partition] = runEpoch(kernel, local, columns, from, to, order, partitionSchedule, partitionOptimizer, residuals);
+                                return null;
+                            }
+                        });
+                    }
+                    for (final Future<Void> future : pool.invokeAll(tasks))
+                        future.get();
+
+                    // Average in partition order, so the sums are reproducible.
+                    Arrays.fill(w, 0.0);
+                    for (final double[] local : partitionParams)
+                        for (int m = 0; m < w.length; ++m)
+                            w[m] += local[m];
+                    for (int m = 0; m < w.length; ++m)
+                        w[m] /= numPartitions;
+
+                    // Convergence is checked once per round, on the last epoch of each partition.
+                    double loss = 0.0;
+                    for (final double partitionLoss : partitionLosses)
+                        loss += partitionLoss;
+                    if (hasConverged(convergenceTracker, epochLoss(kernel, w, columns, loss, numTrain), partitionSchedules))
+                        break;
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                pool.shutdown();
+            }
 
             return params;
         }
@@ -0,0 +1,651 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Compiles SGD kernels for one loss, the plain optimizer and a fixed number of
+ * features to bytecode with ASM. The dot product and the update are unrolled
+ * over the features, the feature columns are held in locals and the constants
+ * of the loss, e.g. the threshold of the hinge loss, are inlined. A compiled
+ * kernel does the same floating point operations in the same order as the
+ * generic kernel, so the results are the same bit for bit.
+ *
+ * Kernels compiled with compileFloat read FloatDVector feature columns, the
+ * floatX of staged Columns, directly and widen every value to double, so they
+ * stream half the bytes and skip the copies of a StagedKernel.
+ *
+ * Only per-sample epochs and the loss are compiled, mini-batches and other
+ * optimizers run the generic kernel. The classes are cached per loss, loss
+ * constants, number of features and column type. The estimators of SGD only
+ * use them after setCompileKernels(true).
+ */
+public final class SGDKernelCompiler {
+
+    // Disallow instantiation.
+    private SGDKernelCompiler() {}
+
+    /**
+     * Wider problems are not compiled. The unrolled epoch grows with every
+     * feature and the JIT does not compile methods of more than 8000 bytes.
+     */
+    public static final int MAX_FEATURES = 64;
+
+    // ---------------------------------------------------
+
+    /**
+     * The base class of the compiled kernels. Anything the compiled code does
+     * not cover is passed on to the generic kernel of the loss.
+     */
+    public static abstract class CompiledKernel extends SGDKernels.Kernel {
+
+        private final SGDKernels.Kernel generic;
+
+        protected CompiledKernel(final SGDKernels.Kernel generic) {
+            Preconditions.checkNotNull(generic);
+            this.generic = generic;
+        }
+
+        @Override
+        public final double epoch(final double[] w,
+                                  final SGDKernels.Columns data,
+                                  final int from,
+                                  final int to,
+                                  final SGD.LearningRateSchedule rate,
+                                  final SGDOptimizers.Optimizer optimizer) {
+            if (optimizer instanceof SGDOptimizers.PlainOptimizer) {
+                checkColumns(data);
+                return plainEpoch(w, data, from, to, rate);
+            }
+            return generic.epoch(w, data, from, to, rate, optimizer);
+        }
+
+        @Override
+        public final double batchEpoch(final double[] w,
+                                       final SGDKernels.Columns data,
+                                       final int from,
+                                       final int to,
+                                       final SGD.LearningRateSchedule rate,
+                                       final SGDOptimizers.Optimizer optimizer,
+                                       final double[] residuals) {
+            return generic.batchEpoch(w, data, from, to, rate, optimizer, residuals);
+        }
+
+        @Override
+        public final double loss(final double[] w,
+                                 final SGDKernels.Columns data,
+                                 final int from,
+                                 final int to) {
+            checkColumns(data);
+            return compiledLoss(w, data, from, to);
+        }
+
+        private void checkColumns(final SGDKernels.Columns data) {
+            Preconditions.checkArgument((readsFloats() ? data.floatX : data.X) != null, "no columns the kernel was compiled for");
+        }
+
+        /** True if the kernel reads the float columns floatX instead of X. */
+        public abstract boolean readsFloats();
+
+        /** The epoch of the generic kernel with the plain optimizer, unrolled. */
+        protected abstract double plainEpoch(double[] w, SGDKernels.Columns data, int from, int to, SGD.LearningRateSchedule rate);
+
+        /** The loss of the generic kernel, unrolled. */
+        protected abstract double compiledLoss(double[] w, SGDKernels.Columns data, int from, int to);
+    }
+
+    // ---------------------------------------------------
+
+    private enum Loss {
+        SQUARED, HINGE, LOG, EXPONENTIAL, HUBER, EPSILON_INSENSITIVE
+    }
+
+    /**
+     * Returns the kernel compiled for the loss, the optimizer and the number of
+     * features, or null if there is none, e.g. for too many features or an
+     * optimizer other than plain SGD.
+     */
+    public static SGDKernels.Kernel compile(final SGD.ConvexLossFunction lossFunction,
+                                            final SGDOptimizers.Optimizer optimizer,
+                                            final int numFeatures) {
+        return compile(lossFunction, optimizer, numFeatures, false);
+    }
+
+    /**
+     * Like compile, for Columns with float feature columns. Everything the
+     * compiled code does not cover runs the generic kernel in a StagedKernel.
+     */
+    public static SGDKernels.Kernel compileFloat(final SGD.ConvexLossFunction lossFunction,
+                                                 final SGDOptimizers.Optimizer optimizer,
+                                                 final int numFeatures) {
+        return compile(lossFunction, optimizer, numFeatures, true);
+    }
+
+    private static SGDKernels.Kernel compile(final SGD.ConvexLossFunction lossFunction,
+                                             final SGDOptimizers.Optimizer optimizer,
+                                             final int numFeatures,
+                                             final boolean floats) {
+        Preconditions.checkNotNull(lossFunction);
+        Preconditions.checkNotNull(optimizer);
+        if (!(optimizer instanceof SGDOptimizers.PlainOptimizer) || numFeatures < 0 || numFeatures > MAX_FEATURES)
+            return null;
+
+        final Loss loss;
+        final double c;
+        if (lossFunction instanceof SGD.SquaredLossFunction) {
+            loss = Loss.SQUARED;
+            c = 0.0;
+        } else if (lossFunction instanceof SGD.HingeLossFunction) {
+            loss = Loss.HINGE;
+            c = ((SGD.HingeLossFunction) lossFunction).threshold;
+        } else if (lossFunction instanceof SGD.LogLossFunction) {
+            loss = Loss.LOG;
+            c = 0.0;
+        } else if (lossFunction instanceof SGD.ExponentialLossFunction) {
+            loss = Loss.EXPONENTIAL;
+            c = 0.0;
+        } else if (lossFunction instanceof SGD.HuberLossFunction) {
+            loss = Loss.HUBER;
+            c = ((SGD.HuberLossFunction) lossFunction).c;
+        } else if (lossFunction instanceof SGD.EpsilonInsensitiveLossFunction) {
+            loss = Loss.EPSILON_INSENSITIVE;
+            c = ((SGD.EpsilonInsensitiveLossFunction) lossFunction).epsilon;
+        } else
+            return null;
+
+        // The bits of c, so that e.g. 0.0 and -0.0 get classes of their own.
+        final String key = loss + "/" + Long.toHexString(Double.doubleToRawLongBits(c)) + "/" + numFeatures + (floats ? "/float" : "");
+        final Class<?> clazz = GeneratedClasses.get(CompiledKernel.class, key, new GeneratedClasses.Generator() {
+
+            @Override
+            public byte[] generate(final String className) {
+                return generateKernel(className, loss, c, numFeatures, floats);
+            }
+        });
+        final SGDKernels.Kernel generic = SGDKernels.forLoss(lossFunction);
+        try {
+            return (SGDKernels.Kernel) clazz.getConstructor(SGDKernels.Kernel.class).newInstance(floats ? new SGDKernels.StagedKernel(generic) : generic);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---------------------------------------------------
+
+    private static final String MATH = "java/lang/Math";
+
+    private static final String SCHEDULE = GeneratedClasses.internalName(SGD.LearningRateSchedule.class);
+
+    private static final String COLUMNS = GeneratedClasses.internalName(SGDKernels.Columns.class);
+
+    private static final String ARGUMENTS = "([DL" + COLUMNS + ";II";
+
+    /**
+     * The locals of the generated methods. The arguments w, data, from, to and
+     * rate come first, then the target and feature columns, then the scalars.
+     */
+    private static final class Locals {
+
+        static final int W = 1, DATA = 2, FROM = 3, TO = 4, RATE = 5, Y = 6, COLUMNS = 7;
+
+        /** True if the feature columns are float arrays. */
+        final boolean floats;
+
+        final int i, loss, p, y, eta, d, t, u;
+
+        Locals(final int numFeatures, final boolean floats) {
+            this.floats = floats;
+            i = COLUMNS + numFeatures;
+            loss = i + 1;
+            p = loss + 2;
+            y = p + 2;
+            eta = y + 2;
+            d = eta + 2;
+            t = d + 2;
+            u = t + 2;
+        }
+    }
+
+    private static byte[] generateKernel(final String className, final Loss loss, final double c, final int numFeatures, final boolean floats) {
+        final ClassWriter cw = GeneratedClasses.newClass(className, CompiledKernel.class, SGDKernels.Kernel.class);
+
+        final MethodVisitor readsFloats = cw.visitMethod(Opcodes.ACC_PUBLIC, "readsFloats", "()Z", null, null);
+        readsFloats.visitCode();
+        readsFloats.visitInsn(floats ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+        readsFloats.visitInsn(Opcodes.IRETURN);
+        readsFloats.visitMaxs(0, 0);
+        readsFloats.visitEnd();
+
+        final MethodVisitor epoch = cw.visitMethod(Opcodes.ACC_PUBLIC, "plainEpoch", ARGUMENTS + "L" + SCHEDULE + ";)D", null, null);
+        epoch.visitCode();
+        generateLoop(epoch, loss, c, new Locals(numFeatures, floats), numFeatures, true);
+        epoch.visitMaxs(0, 0);
+        epoch.visitEnd();
+
+        final MethodVisitor lossMethod = cw.visitMethod(Opcodes.ACC_PUBLIC, "compiledLoss", ARGUMENTS + ")D", null, null);
+        lossMethod.visitCode();
+        generateLoop(lossMethod, loss, c, new Locals(numFeatures, floats), numFeatures, false);
+        lossMethod.visitMaxs(0, 0);
+        lossMethod.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * for (i = from; i < to; ++i) { p = dot(w, x, i); y = Y[i]; ... } return loss;
+     * The body either takes a step of plain SGD or only sums up the loss.
+     */
+    private static void generateLoop(final MethodVisitor mv, final Loss loss, final double c, final Locals l, final int numFeatures, final boolean update) {
+        // Y = data.Y, or the elements of the DVector data.sourceY next to float columns.
+        mv.visitVarInsn(Opcodes.ALOAD, Locals.DATA);
+        if (l.floats) {
+            mv.visitFieldInsn(Opcodes.GETFIELD, COLUMNS, "sourceY", "L" + GeneratedClasses.internalName(DColumn.class) + ";");
+            mv.visitTypeInsn(Opcodes.CHECKCAST, GeneratedClasses.internalName(DVector.class));
+            mv.visitFieldInsn(Opcodes.GETFIELD, GeneratedClasses.internalName(DVector.class), "elements", "[D");
+        } else
+            mv.visitFieldInsn(Opcodes.GETFIELD, COLUMNS, "Y", "[D");
+        mv.visitVarInsn(Opcodes.ASTORE, Locals.Y);
+
+        // x_j = X[j], or floatX[j]
+        for (int j = 0; j < numFeatures; ++j) {
+            mv.visitVarInsn(Opcodes.ALOAD, Locals.DATA);
+            mv.visitFieldInsn(Opcodes.GETFIELD, COLUMNS, l.floats ? "floatX" : "X", l.floats ? "[[F" : "[[D");
+            GeneratedClasses.pushInt(mv, j);
+            mv.visitInsn(Opcodes.AALOAD);
+            mv.visitVarInsn(Opcodes.ASTORE, Locals.COLUMNS + j);
+        }
+        mv.visitInsn(Opcodes.DCONST_0);
+        mv.visitVarInsn(Opcodes.DSTORE, l.loss);
+        mv.visitVarInsn(Opcodes.ILOAD, Locals.FROM);
+        mv.visitVarInsn(Opcodes.ISTORE, l.i);
+
+        final Label test = new Label(), next = new Label(), end = new Label();
+        mv.visitLabel(test);
+        mv.visitVarInsn(Opcodes.ILOAD, l.i);
+        mv.visitVarInsn(Opcodes.ILOAD, Locals.TO);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+
+        // p = w[0] + x_0[i] * w[1] + ... + x_{n-1}[i] * w[n]
+        loadW(mv, 0);
+        for (int j = 0; j < numFeatures; ++j) {
+            loadX(mv, l, j);
+            loadW(mv, j + 1);
+            mv.visitInsn(Opcodes.DMUL);
+            mv.visitInsn(Opcodes.DADD);
+        }
+        mv.visitVarInsn(Opcodes.DSTORE, l.p);
+        mv.visitVarInsn(Opcodes.ALOAD, Locals.Y);
+        mv.visitVarInsn(Opcodes.ILOAD, l.i);
+        mv.visitInsn(Opcodes.DALOAD);
+        mv.visitVarInsn(Opcodes.DSTORE, l.y);
+
+        if (update) {
+            // Every sample takes a learning rate, also if it causes no update.
+            mv.visitVarInsn(Opcodes.ALOAD, Locals.RATE);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SCHEDULE, "next", "()D");
+            mv.visitVarInsn(Opcodes.DSTORE, l.eta);
+            generateDerivative(mv, l, loss, c, next);
+
+            // g = eta * d, w = w - g * (1, x_i)
+            mv.visitVarInsn(Opcodes.DLOAD, l.eta);
+            mv.visitVarInsn(Opcodes.DLOAD, l.d);
+            mv.visitInsn(Opcodes.DMUL);
+            mv.visitVarInsn(Opcodes.DSTORE, l.d);
+            for (int m = 0; m <= numFeatures; ++m) {
+                mv.visitVarInsn(Opcodes.ALOAD, Locals.W);
+                GeneratedClasses.pushInt(mv, m);
+                loadW(mv, m);
+                mv.visitVarInsn(Opcodes.DLOAD, l.d);
+                if (m > 0) {
+                    loadX(mv, l, m - 1);
+                    mv.visitInsn(Opcodes.DMUL);
+                }
+                mv.visitInsn(Opcodes.DSUB);
+                mv.visitInsn(Opcodes.DASTORE);
+            }
+        } else
+            generateLoss(mv, l, loss, c);
+
+        mv.visitLabel(next);
+        mv.visitIincInsn(l.i, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, test);
+        mv.visitLabel(end);
+        mv.visitVarInsn(Opcodes.DLOAD, l.loss);
+        mv.visitInsn(Opcodes.DRETURN);
+    }
+
+    /**
+     * Adds the loss of the sample to loss and stores the derivative in d, as
+     * the epoch of the generic kernel does, or jumps to skip if the sample
+     * causes no update. Optimizer.skip of plain SGD does nothing, so there is
+     * nothing to generate for it.
+     */
+    private static void generateDerivative(final MethodVisitor mv, final Locals l, final Loss loss, final double c, final Label skip) {
+        switch (loss) {
+            case SQUARED:
+                // r = p - y, loss += 0.5 * r * r, d = r
+                residual(mv, l);
+                mv.visitLdcInsn(0.5);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DMUL);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DMUL);
+                addToLoss(mv, l);
+                copy(mv, l.t, l.d);
+                break;
+
+            case HINGE:
+                // z = p * y, if (z <= c) { loss += c - z, d = -y }
+                margin(mv, l);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(c);
+                mv.visitInsn(Opcodes.DCMPG);
+                mv.visitJumpInsn(Opcodes.IFGT, skip);
+                mv.visitLdcInsn(c);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DSUB);
+                addToLoss(mv, l);
+                mv.visitVarInsn(Opcodes.DLOAD, l.y);
+                mv.visitInsn(Opcodes.DNEG);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                break;
+
+            case LOG: {
+                // z = p * y, loss += loss(z), d = dloss(z, y)
+                margin(mv, l);
+                logLoss(mv, l);
+                addToLoss(mv, l);
+                final Label small = new Label(), inner = new Label(), done = new Label();
+                // z > 18: d = -y * exp(-z)
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(18.0);
+                mv.visitInsn(Opcodes.DCMPL);
+                mv.visitJumpInsn(Opcodes.IFLE, small);
+                mv.visitVarInsn(Opcodes.DLOAD, l.y);
+                mv.visitInsn(Opcodes.DNEG);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DNEG);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "exp", "(D)D");
+                mv.visitInsn(Opcodes.DMUL);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                // z < -18: d = -y
+                mv.visitLabel(small);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(-18.0);
+                mv.visitInsn(Opcodes.DCMPG);
+                mv.visitJumpInsn(Opcodes.IFGE, inner);
+                mv.visitVarInsn(Opcodes.DLOAD, l.y);
+                mv.visitInsn(Opcodes.DNEG);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                // else: d = -y / (exp(z) + 1)
+                mv.visitLabel(inner);
+                mv.visitVarInsn(Opcodes.DLOAD, l.y);
+                mv.visitInsn(Opcodes.DNEG);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "exp", "(D)D");
+                mv.visitInsn(Opcodes.DCONST_1);
+                mv.visitInsn(Opcodes.DADD);
+                mv.visitInsn(Opcodes.DDIV);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                mv.visitLabel(done);
+                break;
+            }
+
+            case EXPONENTIAL:
+                // e = exp(-p * y), loss += e, d = -y * e
+                exponential(mv, l);
+                mv.visitVarInsn(Opcodes.DSTORE, l.t);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                addToLoss(mv, l);
+                mv.visitVarInsn(Opcodes.DLOAD, l.y);
+                mv.visitInsn(Opcodes.DNEG);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DMUL);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                break;
+
+            case HUBER: {
+                // r = p - y, loss += huber(r), d = clip(r, -c, c)
+                residual(mv, l);
+                huberLoss(mv, l, c);
+                addToLoss(mv, l);
+                final Label notAbove = new Label(), notBelow = new Label(), done = new Label();
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(c);
+                mv.visitInsn(Opcodes.DCMPL);
+                mv.visitJumpInsn(Opcodes.IFLE, notAbove);
+                mv.visitLdcInsn(c);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                mv.visitLabel(notAbove);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(-c);
+                mv.visitInsn(Opcodes.DCMPG);
+                mv.visitJumpInsn(Opcodes.IFGE, notBelow);
+                mv.visitLdcInsn(-c);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                mv.visitLabel(notBelow);
+                copy(mv, l.t, l.d);
+                mv.visitLabel(done);
+                break;
+            }
+
+            case EPSILON_INSENSITIVE: {
+                // r = p - y, if (r > c) { loss += r - c, d = 1 } else if (r < -c) { loss += -r - c, d = -1 }
+                residual(mv, l);
+                final Label notAbove = new Label(), done = new Label();
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(c);
+                mv.visitInsn(Opcodes.DCMPL);
+                mv.visitJumpInsn(Opcodes.IFLE, notAbove);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(c);
+                mv.visitInsn(Opcodes.DSUB);
+                addToLoss(mv, l);
+                mv.visitInsn(Opcodes.DCONST_1);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                mv.visitLabel(notAbove);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitLdcInsn(-c);
+                mv.visitInsn(Opcodes.DCMPG);
+                mv.visitJumpInsn(Opcodes.IFGE, skip);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DNEG);
+                mv.visitLdcInsn(c);
+                mv.visitInsn(Opcodes.DSUB);
+                addToLoss(mv, l);
+                mv.visitLdcInsn(-1.0);
+                mv.visitVarInsn(Opcodes.DSTORE, l.d);
+                mv.visitLabel(done);
+                break;
+            }
+
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /** Adds the loss of the sample to loss, as the loss of the generic kernel does. */
+    private static void generateLoss(final MethodVisitor mv, final Locals l, final Loss loss, final double c) {
+        switch (loss) {
+            case SQUARED:
+                residual(mv, l);
+                mv.visitLdcInsn(0.5);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DMUL);
+                mv.visitVarInsn(Opcodes.DLOAD, l.t);
+                mv.visitInsn(Opcodes.DMUL);
+                break;
+
+            case HINGE:
+                // max(0, c - p * y)
+                mv.visitInsn(Opcodes.DCONST_0);
+                mv.visitLdcInsn(c);
+                mv.visitVarInsn(Opcodes.DLOAD, l.p);
+                mv.visitVarInsn(Opcodes.DLOAD, l.y);
+                mv.visitInsn(Opcodes.DMUL);
+                mv.visitInsn(Opcodes.DSUB);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "max", "(DD)D");
+                break;
+
+            case LOG:
+                margin(mv, l);
+                logLoss(mv, l);
+                break;
+
+            case EXPONENTIAL:
+                exponential(mv, l);
+                break;
+
+            case HUBER:
+                residual(mv, l);
+                huberLoss(mv, l, c);
+                break;
+
+            case EPSILON_INSENSITIVE:
+                // max(0, |p - y| - c)
+                mv.visitInsn(Opcodes.DCONST_0);
+                mv.visitVarInsn(Opcodes.DLOAD, l.p);
+                mv.visitVarInsn(Opcodes.DLOAD, l.y);
+                mv.visitInsn(Opcodes.DSUB);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "abs", "(D)D");
+                mv.visitLdcInsn(c);
+                mv.visitInsn(Opcodes.DSUB);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "max", "(DD)D");
+                break;
+
+            default:
+                throw new IllegalStateException();
+        }
+        addToLoss(mv, l);
+    }
+
+    // ---------------------------------------------------
+
+    private static void loadW(final MethodVisitor mv, final int m) {
+        mv.visitVarInsn(Opcodes.ALOAD, Locals.W);
+        GeneratedClasses.pushInt(mv, m);
+        mv.visitInsn(Opcodes.DALOAD);
+    }
+
+    /** Pushes x_j[i], widened to double for float columns. */
+    private static void loadX(final MethodVisitor mv, final Locals l, final int j) {
+        mv.visitVarInsn(Opcodes.ALOAD, Locals.COLUMNS + j);
+        mv.visitVarInsn(Opcodes.ILOAD, l.i);
+        if (l.floats) {
+            mv.visitInsn(Opcodes.FALOAD);
+            mv.visitInsn(Opcodes.F2D);
+        } else
+            mv.visitInsn(Opcodes.DALOAD);
+    }
+
+    private static void copy(final MethodVisitor mv, final int from, final int to) {
+        mv.visitVarInsn(Opcodes.DLOAD, from);
+        mv.visitVarInsn(Opcodes.DSTORE, to);
+    }
+
+    /** loss = loss + the value on the stack. */
+    private static void addToLoss(final MethodVisitor mv, final Locals l) {
+        mv.visitVarInsn(Opcodes.DLOAD, l.loss);
+        mv.visitInsn(Opcodes.DADD);
+        mv.visitVarInsn(Opcodes.DSTORE, l.loss);
+    }
+
+    /** t = p - y */
+    private static void residual(final MethodVisitor mv, final Locals l) {
+        mv.visitVarInsn(Opcodes.DLOAD, l.p);
+        mv.visitVarInsn(Opcodes.DLOAD, l.y);
+        mv.visitInsn(Opcodes.DSUB);
+        mv.visitVarInsn(Opcodes.DSTORE, l.t);
+    }
+
+    /** t = p * y */
+    private static void margin(final MethodVisitor mv, final Locals l) {
+        mv.visitVarInsn(Opcodes.DLOAD, l.p);
+        mv.visitVarInsn(Opcodes.DLOAD, l.y);
+        mv.visitInsn(Opcodes.DMUL);
+        mv.visitVarInsn(Opcodes.DSTORE, l.t);
+    }
+
+    /** Pushes exp(-p * y). */
+    private static void exponential(final MethodVisitor mv, final Locals l) {
+        mv.visitVarInsn(Opcodes.DLOAD, l.p);
+        mv.visitInsn(Opcodes.DNEG);
+        mv.visitVarInsn(Opcodes.DLOAD, l.y);
+        mv.visitInsn(Opcodes.DMUL);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "exp", "(D)D");
+    }
+
+    /** Pushes the log loss of the margin t, cut off for large margins. */
+    private static void logLoss(final MethodVisitor mv, final Locals l) {
+        final Label small = new Label(), inner = new Label(), done = new Label();
+        // z > 18: exp(-z)
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitLdcInsn(18.0);
+        mv.visitInsn(Opcodes.DCMPL);
+        mv.visitJumpInsn(Opcodes.IFLE, small);
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitInsn(Opcodes.DNEG);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "exp", "(D)D");
+        mv.visitVarInsn(Opcodes.DSTORE, l.u);
+        mv.visitJumpInsn(Opcodes.GOTO, done);
+        // z < -18: -z
+        mv.visitLabel(small);
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitLdcInsn(-18.0);
+        mv.visitInsn(Opcodes.DCMPG);
+        mv.visitJumpInsn(Opcodes.IFGE, inner);
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitInsn(Opcodes.DNEG);
+        mv.visitVarInsn(Opcodes.DSTORE, l.u);
+        mv.visitJumpInsn(Opcodes.GOTO, done);
+        // else: log(1 + exp(-z))
+        mv.visitLabel(inner);
+        mv.visitInsn(Opcodes.DCONST_1);
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitInsn(Opcodes.DNEG);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "exp", "(D)D");
+        mv.visitInsn(Opcodes.DADD);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "log", "(D)D");
+        mv.visitVarInsn(Opcodes.DSTORE, l.u);
+        mv.visitLabel(done);
+        mv.visitVarInsn(Opcodes.DLOAD, l.u);
+    }
+
+    /** Pushes the Huber loss of the residual t. */
+    private static void huberLoss(final MethodVisitor mv, final Locals l, final double c) {
+        final Label linear = new Label(), done = new Label();
+        // u = |r|, u <= c ? 0.5 * r * r : c * u - 0.5 * c * c
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, MATH, "abs", "(D)D");
+        mv.visitVarInsn(Opcodes.DSTORE, l.u);
+        mv.visitVarInsn(Opcodes.DLOAD, l.u);
+        mv.visitLdcInsn(c);
+        mv.visitInsn(Opcodes.DCMPG);
+        mv.visitJumpInsn(Opcodes.IFGT, linear);
+        mv.visitLdcInsn(0.5);
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitInsn(Opcodes.DMUL);
+        mv.visitVarInsn(Opcodes.DLOAD, l.t);
+        mv.visitInsn(Opcodes.DMUL);
+        mv.visitVarInsn(Opcodes.DSTORE, l.u);
+        mv.visitJumpInsn(Opcodes.GOTO, done);
+        mv.visitLabel(linear);
+        mv.visitLdcInsn(c);
+        mv.visitVarInsn(Opcodes.DLOAD, l.u);
+        mv.visitInsn(Opcodes.DMUL);
+        mv.visitLdcInsn(0.5 * c * c);
+        mv.visitInsn(Opcodes.DSUB);
+        mv.visitVarInsn(Opcodes.DSTORE, l.u);
+        mv.visitLabel(done);
+        mv.visitVarInsn(Opcodes.DLOAD, l.u);
+    }
+}
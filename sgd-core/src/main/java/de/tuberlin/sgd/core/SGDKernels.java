@@ -0,0 +1,903 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+public final class SGDKernels {
+
+    // Disallow instantiation.
+    private SGDKernels() {}
+
+    // ---------------------------------------------------
+
+    /**
+     * The columns of a DVectorFrame resolved into raw arrays. This
+     * is done once per fit, so the kernels never touch the frame. Columns
+     * which are not on the heap are kept as sources instead, X and Y are
+     * null then, and a StagedKernel copies them onto the heap block by block.
+     */
+    public static final class Columns {
+
+        /** Feature columns, X[j][i] is feature j of sample i. */
+        public final double[][] X;
+
+        /** Target column, may be null if there is no target. */
+        public final double[] Y;
+
+        /** Feature and target columns of a staged frame, else null. */
+        public final DColumn[] sourceX;
+
+        public final DColumn sourceY;
+
+        /**
+         * The arrays of the feature columns of a staged frame if they are all
+         * FloatDVectors and the target is a DVector, else null. Compiled
+         * kernels read them without staging.
+         */
+        public final float[][] floatX;
+
+        public final int numSamples;
+
+        public Columns(final double[][] X, final double[] Y, final int numSamples) {
+            Preconditions.checkNotNull(X);
+            Preconditions.checkArgument(numSamples >= 0);
+            for (final double[] x : X)
+                Preconditions.checkArgument(x != null && x.length >= numSamples);
+            Preconditions.checkArgument(Y == null || Y.length >= numSamples);
+            this.X = X;
+            this.Y = Y;
+            this.sourceX = null;
+            this.sourceY = null;
+            this.floatX = null;
+            this.numSamples = numSamples;
+        }
+
+        public Columns(final DColumn[] sourceX, final DColumn sourceY, final int numSamples) {
+            Preconditions.checkNotNull(sourceX);
+            Preconditions.checkArgument(numSamples >= 0);
+            for (final DColumn x : sourceX)
+                Preconditions.checkArgument(x != null && x.size() >= numSamples);
+            Preconditions.checkArgument(sourceY == null || sourceY.size() >= numSamples);
+            this.X = null;
+            this.Y = null;
+            this.sourceX = sourceX;
+            this.sourceY = sourceY;
+            this.floatX = floatColumns(sourceX, sourceY);
+            this.numSamples = numSamples;
+        }
+
+        private static float[][] floatColumns(final DColumn[] sourceX, final DColumn sourceY) {
+            if (!(sourceY instanceof DVector))
+                return null;
+            final float[][] floatX = new float[sourceX.length][];
+            for (int j = 0; j < sourceX.length; ++j) {
+                if (!(sourceX[j] instanceof FloatDVector))
+                    return null;
+                floatX[j] = ((FloatDVector) sourceX[j]).elements;
+            }
+            return floatX;
+        }
+
+        public int getNumberOfFeatures() {
+            return isStaged() ? sourceX.length : X.length;
+        }
+
+        /** True if the columns are not on the heap and have to be staged. */
+        public boolean isStaged() {
+            return X == null;
+        }
+
+        public static Columns resolve(final DVectorFrame frame,
+                                      final int[] X_indices,
+                                      final int Y_index,
+                                      final int numSamples) {
+            Preconditions.checkNotNull(frame);
+            Preconditions.checkNotNull(X_indices);
+            final DColumn[] sourceX = new DColumn[X_indices.length];
+            boolean onHeap = true;
+            int j = 0;
+            for (final int index : X_indices) {
+                sourceX[j] = frame.getColumn(index);
+                onHeap &= sourceX[j++] instanceof DVector;
+            }
+            final DColumn sourceY = Y_index < 0 ? null : frame.getColumn(Y_index);
+            onHeap &= sourceY == null || sourceY instanceof DVector;
+            if (!onHeap)
+                return new Columns(sourceX, sourceY, numSamples);
+
+            final double[][] X = new double[X_indices.length][];
+            for (j = 0; j < X.length; ++j)
+                X[j] = ((DVector) sourceX[j]).elements;
+            final double[] Y = sourceY == null ? null : ((DVector) sourceY).elements;
+            return new Columns(X, Y, numSamples);
+        }
+
+        /**
+         * Copies the rows [from, from + n) of the sources into the first n
+         * rows of stage, whose arrays must be large enough.
+         */
+        void stage(final int from, final int n, final Columns stage) {
+            for (int j = 0; j < sourceX.length; ++j)
+                sourceX[j].copyTo(from, n, stage.X[j], 0);
+            if (sourceY != null)
+                sourceY.copyTo(from, n, stage.Y, 0);
+        }
+
+        /** Heap columns of numRows rows to stage these columns into. */
+        Columns newStage(final int numRows) {
+            return new Columns(new double[sourceX.length][numRows], sourceY == null ? null : new double[numRows], numRows);
+        }
+    }
+
+    // ---------------------------------------------------
+
+    /**
+     * A training kernel does one pass of SGD over a row range. The derivative
+     * of the loss is hard-wired into each concrete kernel, so the inner loop
+     * contains no interface calls for the loss. The step itself is taken by
+     * the optimizer, a fit uses one kind of optimizer, so the call site stays
+     * monomorphic and is inlined. The loops of all kernels share the static
+     * helpers below, which are small enough to be inlined.
+     */
+    public static abstract class Kernel {
+
+        /**
+         * Runs SGD over the rows [from, to) and updates w in place through the
+         * optimizer. Returns the summed loss of the rows, taken from the forward
+         * pass of each update.
+         */
+        public abstract double epoch(final double[] w,
+                                     final Columns data,
+                                     final int from,
+                                     final int to,
+                                     final SGD.LearningRateSchedule rate,
+                                     final SGDOptimizers.Optimizer optimizer);
+
+        /**
+         * Runs mini-batch SGD over the rows [from, to). The batch size is the
+         * length of the residuals buffer, the gradient of a block is averaged
+         * and applied to w once per block. Returns the summed loss like epoch.
+         */
+        public abstract double batchEpoch(final double[] w,
+                                          final Columns data,
+                                          final int from,
+                                          final int to,
+                                          final SGD.LearningRateSchedule rate,
+                                          final SGDOptimizers.Optimizer optimizer,
+                                          final double[] residuals);
+
+        /** Returns the summed loss of w over the rows [from, to), w is not changed. */
+        public abstract double loss(final double[] w,
+                                    final Columns data,
+                                    final int from,
+                                    final int to);
+
+        /** Dot product of sample i and the parameter vector. */
+        protected static double dot(final double[] w, final double[][] X, final int i) {
+            double p = w[0];
+            for (int j = 0; j < X.length; ++j)
+                p += X[j][i] * w[j + 1];
+            return p;
+        }
+
+        /**
+         * Dot product of sample i and the parameter vector with the weights
+         * times scale, the same as dot for a scale of 1.
+         */
+        protected static double dot(final double[] w, final double[][] X, final int i, final double scale) {
+            double p = w[0];
+            for (int j = 0; j < X.length; ++j)
+                p += X[j][i] * (scale * w[j + 1]);
+            return p;
+        }
+
+        /** Predictions of the rows [start, start + n), walking one column at a time. */
+        protected static void predictBlock(final double[] w, final double[][] X, final int start, final int n, final double[] out) {
+            for (int r = 0; r < n; ++r)
+                out[r] = w[0];
+            for (int j = 0; j < X.length; ++j) {
+                final double[] x = X[j];
+                final double wj = w[j + 1];
+                for (int r = 0; r < n; ++r)
+                    out[r] += x[start + r] * wj;
+            }
+        }
+    }
+
+    /**
+     * Kernel for the squared loss, dloss(p, y) = p - y.
+     */
+    public static final class SquaredLossKernel extends Kernel {
+
+        @Override
+        public double epoch(final double[] w,
+                            final Columns data,
+                            final int from,
+                            final int to,
+                            final SGD.LearningRateSchedule rate,
+                            final SGDOptimizers.Optimizer optimizer) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i) {
+                // The residual is computed once per sample.
+                final double r = dot(w, X, i) - Y[i];
+                loss += 0.5 * r * r;
+                optimizer.update(w, X, i, r, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double batchEpoch(final double[] w,
+                                 final Columns data,
+                                 final int from,
+                                 final int to,
+                                 final SGD.LearningRateSchedule rate,
+                                 final SGDOptimizers.Optimizer optimizer,
+                                 final double[] residuals) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            final int batchSize = residuals.length;
+            double loss = 0.0;
+
+            for (int start = from; start < to; start += batchSize) {
+                final int n = Math.min(batchSize, to - start);
+                predictBlock(w, X, start, n, residuals);
+                for (int r = 0; r < n; ++r) {
+                    residuals[r] = residuals[r] - Y[start + r];
+                    loss += 0.5 * residuals[r] * residuals[r];
+                }
+                // Apply the averaged gradient of the block.
+                optimizer.updateBlock(w, X, start, n, residuals, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double loss(final double[] w,
+                           final Columns data,
+                           final int from,
+                           final int to) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i) {
+                final double r = dot(w, X, i) - Y[i];
+                loss += 0.5 * r * r;
+            }
+            return loss;
+        }
+    }
+
+    /**
+     * Kernel for the hinge loss, max(0, threshold - p * y) with y in {-1, 1}.
+     * Rows with a margin above the threshold have no gradient, the optimizer
+     * only skips them.
+     */
+    public static final class HingeLossKernel extends Kernel {
+
+        private final double threshold;
+
+        public HingeLossKernel(final double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public double epoch(final double[] w,
+                            final Columns data,
+                            final int from,
+                            final int to,
+                            final SGD.LearningRateSchedule rate,
+                            final SGDOptimizers.Optimizer optimizer) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i) {
+                final double z = dot(w, X, i, optimizer.getScale()) * Y[i];
+                final double eta = rate.next();
+                if (z <= threshold) {
+                    loss += threshold - z;
+                    optimizer.update(w, X, i, -Y[i], eta);
+                } else
+                    optimizer.skip(w, eta);
+            }
+            optimizer.flush(w);
+            return loss;
+        }
+
+        @Override
+        public double batchEpoch(final double[] w,
+                                 final Columns data,
+                                 final int from,
+                                 final int to,
+                                 final SGD.LearningRateSchedule rate,
+                                 final SGDOptimizers.Optimizer optimizer,
+                                 final double[] residuals) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            final int batchSize = residuals.length;
+            double loss = 0.0;
+
+            for (int start = from; start < to; start += batchSize) {
+                final int n = Math.min(batchSize, to - start);
+                predictBlock(w, X, start, n, residuals);
+                for (int r = 0; r < n; ++r) {
+                    final double y = Y[start + r];
+                    final double z = residuals[r] * y;
+                    if (z <= threshold) {
+                        loss += threshold - z;
+                        residuals[r] = -y;
+                    } else
+                        residuals[r] = 0.0;
+                }
+                optimizer.updateBlock(w, X, start, n, residuals, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double loss(final double[] w,
+                           final Columns data,
+                           final int from,
+                           final int to) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i)
+                loss += Math.max(0.0, threshold - dot(w, X, i) * Y[i]);
+            return loss;
+        }
+    }
+
+    /**
+     * Kernel for the logistic loss, log(1 + exp(-p * y)) with y in {-1, 1}.
+     * Large margins are cut off as in the loss function, so exp never overflows.
+     */
+    public static final class LogLossKernel extends Kernel {
+
+        private static double loss(final double z) {
+            if (z > 18.0)
+                return Math.exp(-z);
+            if (z < -18.0)
+                return -z;
+            return Math.log(1.0 + Math.exp(-z));
+        }
+
+        private static double dloss(final double z, final double y) {
+            if (z > 18.0)
+                return -y * Math.exp(-z);
+            if (z < -18.0)
+                return -y;
+            return -y / (Math.exp(z) + 1.0);
+        }
+
+        @Override
+        public double epoch(final double[] w,
+                            final Columns data,
+                            final int from,
+                            final int to,
+                            final SGD.LearningRateSchedule rate,
+                            final SGDOptimizers.Optimizer optimizer) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i) {
+                final double z = dot(w, X, i) * Y[i];
+                loss += loss(z);
+                optimizer.update(w, X, i, dloss(z, Y[i]), rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double batchEpoch(final double[] w,
+                                 final Columns data,
+                                 final int from,
+                                 final int to,
+                                 final SGD.LearningRateSchedule rate,
+                                 final SGDOptimizers.Optimizer optimizer,
+                                 final double[] residuals) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            final int batchSize = residuals.length;
+            double loss = 0.0;
+
+            for (int start = from; start < to; start += batchSize) {
+                final int n = Math.min(batchSize, to - start);
+                predictBlock(w, X, start, n, residuals);
+                for (int r = 0; r < n; ++r) {
+                    final double z = residuals[r] * Y[start + r];
+                    loss += loss(z);
+                    residuals[r] = dloss(z, Y[start + r]);
+                }
+                optimizer.updateBlock(w, X, start, n, residuals, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double loss(final double[] w,
+                           final Columns data,
+                           final int from,
+                           final int to) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i)
+                loss += loss(dot(w, X, i) * Y[i]);
+            return loss;
+        }
+    }
+
+    /**
+     * Kernel for the exponential loss, exp(-p * y) with y in {-1, 1}.
+     */
+    public static final class ExponentialLossKernel extends Kernel {
+
+        @Override
+        public double epoch(final double[] w,
+                            final Columns data,
+                            final int from,
+                            final int to,
+                            final SGD.LearningRateSchedule rate,
+                            final SGDOptimizers.Optimizer optimizer) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i) {
+                final double e = Math.exp(-dot(w, X, i) * Y[i]);
+                loss += e;
+                optimizer.update(w, X, i, -Y[i] * e, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double batchEpoch(final double[] w,
+                                 final Columns data,
+                                 final int from,
+                                 final int to,
+                                 final SGD.LearningRateSchedule rate,
+                                 final SGDOptimizers.Optimizer optimizer,
+                                 final double[] residuals) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            final int batchSize = residuals.length;
+            double loss = 0.0;
+
+            for (int start = from; start < to; start += batchSize) {
+                final int n = Math.min(batchSize, to - start);
+                predictBlock(w, X, start, n, residuals);
+                for (int r = 0; r < n; ++r) {
+                    final double e = Math.exp(-residuals[r] * Y[start + r]);
+                    loss += e;
+                    residuals[r] = -Y[start + r] * e;
+                }
+                optimizer.updateBlock(w, X, start, n, residuals, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double loss(final double[] w,
+                           final Columns data,
+                           final int from,
+                           final int to) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i)
+                loss += Math.exp(-dot(w, X, i) * Y[i]);
+            return loss;
+        }
+    }
+
+    /**
+     * Kernel for the Huber loss, squared for residuals up to c and linear
+     * beyond, so outliers pull on the parameters with at most c.
+     */
+    public static final class HuberLossKernel extends Kernel {
+
+        private final double c;
+
+        public HuberLossKernel(final double c) {
+            this.c = c;
+        }
+
+        private double loss(final double r) {
+            final double abs = Math.abs(r);
+            return abs <= c ? 0.5 * r * r : c * abs - 0.5 * c * c;
+        }
+
+        private double dloss(final double r) {
+            if (r > c)
+                return c;
+            if (r < -c)
+                return -c;
+            return r;
+        }
+
+        @Override
+        public double epoch(final double[] w,
+                            final Columns data,
+                            final int from,
+                            final int to,
+                            final SGD.LearningRateSchedule rate,
+                            final SGDOptimizers.Optimizer optimizer) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i) {
+                final double r = dot(w, X, i) - Y[i];
+                loss += loss(r);
+                optimizer.update(w, X, i, dloss(r), rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double batchEpoch(final double[] w,
+                                 final Columns data,
+                                 final int from,
+                                 final int to,
+                                 final SGD.LearningRateSchedule rate,
+                                 final SGDOptimizers.Optimizer optimizer,
+                                 final double[] residuals) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            final int batchSize = residuals.length;
+            double loss = 0.0;
+
+            for (int start = from; start < to; start += batchSize) {
+                final int n = Math.min(batchSize, to - start);
+                predictBlock(w, X, start, n, residuals);
+                for (int r = 0; r < n; ++r) {
+                    final double res = residuals[r] - Y[start + r];
+                    loss += loss(res);
+                    residuals[r] = dloss(res);
+                }
+                optimizer.updateBlock(w, X, start, n, residuals, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double loss(final double[] w,
+                           final Columns data,
+                           final int from,
+                           final int to) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i)
+                loss += loss(dot(w, X, i) - Y[i]);
+            return loss;
+        }
+    }
+
+    /**
+     * Kernel for the epsilon-insensitive loss, max(0, |y - p| - epsilon).
+     * Rows predicted within epsilon have no gradient, the optimizer only skips
+     * them.
+     */
+    public static final class EpsilonInsensitiveLossKernel extends Kernel {
+
+        private final double epsilon;
+
+        public EpsilonInsensitiveLossKernel(final double epsilon) {
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public double epoch(final double[] w,
+                            final Columns data,
+                            final int from,
+                            final int to,
+                            final SGD.LearningRateSchedule rate,
+                            final SGDOptimizers.Optimizer optimizer) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i) {
+                final double r = dot(w, X, i, optimizer.getScale()) - Y[i];
+                final double eta = rate.next();
+                if (r > epsilon) {
+                    loss += r - epsilon;
+                    optimizer.update(w, X, i, 1.0, eta);
+                } else if (r < -epsilon) {
+                    loss += -r - epsilon;
+                    optimizer.update(w, X, i, -1.0, eta);
+                } else
+                    optimizer.skip(w, eta);
+            }
+            optimizer.flush(w);
+            return loss;
+        }
+
+        @Override
+        public double batchEpoch(final double[] w,
+                                 final Columns data,
+                                 final int from,
+                                 final int to,
+                                 final SGD.LearningRateSchedule rate,
+                                 final SGDOptimizers.Optimizer optimizer,
+                                 final double[] residuals) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            final int batchSize = residuals.length;
+            double loss = 0.0;
+
+            for (int start = from; start < to; start += batchSize) {
+                final int n = Math.min(batchSize, to - start);
+                predictBlock(w, X, start, n, residuals);
+                for (int r = 0; r < n; ++r) {
+                    final double res = residuals[r] - Y[start + r];
+                    loss += Math.max(0.0, Math.abs(res) - epsilon);
+                    residuals[r] = res > epsilon ? 1.0 : (res < -epsilon ? -1.0 : 0.0);
+                }
+                optimizer.updateBlock(w, X, start, n, residuals, rate.next());
+            }
+            return loss;
+        }
+
+        @Override
+        public double loss(final double[] w,
+                           final Columns data,
+                           final int from,
+                           final int to) {
+
+            final double[][] X = data.X;
+            final double[] Y = data.Y;
+            double loss = 0.0;
+
+            for (int i = from; i < to; ++i)
+                loss += Math.max(0.0, Math.abs(dot(w, X, i) - Y[i]) - epsilon);
+            return loss;
+        }
+    }
+
+    /**
+     * Runs a kernel on columns which are not on the heap, e.g. OffHeapDVectors.
+     * The rows are copied block by block into heap arrays of STAGE_SIZE rows,
+     * which stay in the cache while the inner kernel runs over them, so the
+     * inner loops are the same as for heap columns and so are the updates.
+     * Every thread stages into its own arrays.
+     */
+    public static final class StagedKernel extends Kernel {
+
+        /** Rows per staged block, rounded up to a multiple of the batch size. */
+        public static final int STAGE_SIZE = 1024;
+
+        private final Kernel kernel;
+
+        private final ThreadLocal<Columns> stages = new ThreadLocal<>();
+
+        public StagedKernel(final Kernel kernel) {
+            Preconditions.checkNotNull(kernel);
+            Preconditions.checkArgument(!(kernel instanceof StagedKernel));
+            this.kernel = kernel;
+        }
+
+        private Columns stage(final Columns data, final int numRows) {
+            Columns stage = stages.get();
+            if (stage == null || stage.numSamples < numRows || stage.X.length != data.sourceX.length || (stage.Y == null) != (data.sourceY == null)) {
+                stage = data.newStage(numRows);
+                stages.set(stage);
+            }
+            return stage;
+        }
+
+        @Override
+        public double epoch(final double[] w,
+                            final Columns data,
+                            final int from,
+                            final int to,
+                            final SGD.LearningRateSchedule rate,
+                            final SGDOptimizers.Optimizer optimizer) {
+
+            final Columns stage = stage(data, STAGE_SIZE);
+            double loss = 0.0;
+            for (int start = from; start < to; start += STAGE_SIZE) {
+                final int n = Math.min(STAGE_SIZE, to - start);
+                data.stage(start, n, stage);
+                loss += kernel.epoch(w, stage, 0, n, rate, optimizer);
+            }
+            return loss;
+        }
+
+        @Override
+        public double batchEpoch(final double[] w,
+                                 final Columns data,
+                                 final int from,
+                                 final int to,
+                                 final SGD.LearningRateSchedule rate,
+                                 final SGDOptimizers.Optimizer optimizer,
+                                 final double[] residuals) {
+
+            // Blocks hold whole batches, so the batches are the same as without staging.
+            final int blockSize = (STAGE_SIZE + residuals.length - 1) / residuals.length * residuals.length;
+            final Columns stage = stage(data, blockSize);
+            double loss = 0.0;
+            for (int start = from; start < to; start += blockSize) {
+                final int n = Math.min(blockSize, to - start);
+                data.stage(start, n, stage);
+                loss += kernel.batchEpoch(w, stage, 0, n, rate, optimizer, residuals);
+            }
+            return loss;
+        }
+
+        @Override
+        public double loss(final double[] w,
+                           final Columns data,
+                           final int from,
+                           final int to) {
+
+            final Columns stage = stage(data, STAGE_SIZE);
+            double loss = 0.0;
+            for (int start = from; start < to; start += STAGE_SIZE) {
+                final int n = Math.min(STAGE_SIZE, to - start);
+                data.stage(start, n, stage);
+                loss += kernel.loss(w, stage, 0, n);
+            }
+            return loss;
+        }
+    }
+
+    // ---------------------------------------------------
+
+    /**
+     * Rows per block of predict. The outputs of one block (8 KB) stay
+     * in the L1 cache while the feature columns stream past them.
+     */
+    public static final int PREDICT_BLOCK_SIZE = 1024;
+
+    /** Computes out[i] = w[0] + sum(w[j + 1] * X[j][i]) for the rows [from, to). */
+    public static void predict(final double[] w,
+                               final Columns data,
+                               final int from,
+                               final int to,
+                               final double[] out) {
+
+        if (data.isStaged()) {
+            predictStaged(w, data, from, to, out);
+            return;
+        }
+
+        final double[][] X = data.X;
+        final int numFeatures = X.length;
+
+        for (int start = from; start < to; start += PREDICT_BLOCK_SIZE) {
+            final int end = Math.min(start + PREDICT_BLOCK_SIZE, to);
+            Arrays.fill(out, start, end, w[0]);
+            for (int j = 0; j < numFeatures; ++j) {
+                final double[] x = X[j];
+                final double wj = w[j + 1];
+                for (int i = start; i < end; ++i)
+                    out[i] += x[i] * wj;
+            }
+        }
+    }
+
+    /** The heap arrays predictStaged copies a block of rows into and scores it in. */
+    private static final class PredictStage {
+
+        final double[][] X;
+
+        final double[] block = new double[PREDICT_BLOCK_SIZE];
+
+        PredictStage(final int numFeatures) {
+            this.X = new double[numFeatures][PREDICT_BLOCK_SIZE];
+        }
+    }
+
+    /** Every thread stages into its own arrays, kept across predict calls. */
+    private static final ThreadLocal<PredictStage> PREDICT_STAGES = new ThreadLocal<>();
+
+    /** Predict of staged columns, one block of rows at a time. */
+    private static void predictStaged(final double[] w,
+                                      final Columns data,
+                                      final int from,
+                                      final int to,
+                                      final double[] out) {
+
+        PredictStage stage = PREDICT_STAGES.get();
+        if (stage == null || stage.X.length != data.sourceX.length) {
+            stage = new PredictStage(data.sourceX.length);
+            PREDICT_STAGES.set(stage);
+        }
+        final double[][] X = stage.X;
+        final double[] block = stage.block;
+        for (int start = from; start < to; start += PREDICT_BLOCK_SIZE) {
+            final int n = Math.min(PREDICT_BLOCK_SIZE, to - start);
+            for (int j = 0; j < X.length; ++j)
+                data.sourceX[j].copyTo(start, n, X[j], 0);
+            Kernel.predictBlock(w, X, 0, n, block);
+            System.arraycopy(block, 0, out, start, n);
+        }
+    }
+
+    // ---------------------------------------------------
+
+    private static final Kernel SQUARED_LOSS_KERNEL = new SquaredLossKernel();
+
+    private static final Kernel LOG_LOSS_KERNEL = new LogLossKernel();
+
+    private static final Kernel EXPONENTIAL_LOSS_KERNEL = new ExponentialLossKernel();
+
+    /**
+     * Returns the specialized kernel for the given loss function, wrapped in a
+     * StagedKernel if the columns are not on the heap.
+     */
+    public static Kernel forLoss(final SGD.ConvexLossFunction lossFunction, final Columns columns) {
+        final Kernel kernel = forLoss(lossFunction);
+        return columns.isStaged() ? new StagedKernel(kernel) : kernel;
+    }
+
+    /**
+     * Like forLoss, but returns a kernel the SGDKernelCompiler compiled for
+     * the optimizer and the number of features if it supports them. Float
+     * feature columns are read by the compiled kernel directly.
+     */
+    public static Kernel compiledForLoss(final SGD.ConvexLossFunction lossFunction,
+                                         final SGDOptimizers.Optimizer optimizer,
+                                         final Columns columns) {
+        if (columns.floatX != null) {
+            final Kernel floatKernel = SGDKernelCompiler.compileFloat(lossFunction, optimizer, columns.getNumberOfFeatures());
+            if (floatKernel != null)
+                return floatKernel;
+        }
+        Kernel kernel = SGDKernelCompiler.compile(lossFunction, optimizer, columns.getNumberOfFeatures());
+        if (kernel == null)
+            kernel = forLoss(lossFunction);
+        return columns.isStaged() ? new StagedKernel(kernel) : kernel;
+    }
+
+    /** Returns the specialized kernel for the given loss function. */
+    public static Kernel forLoss(final SGD.ConvexLossFunction lossFunction) {
+        Preconditions.checkNotNull(lossFunction);
+        if (lossFunction instanceof SGD.SquaredLossFunction)
+            return SQUARED_LOSS_KERNEL;
+        else if (lossFunction instanceof SGD.HingeLossFunction)
+            return new HingeLossKernel(((SGD.HingeLossFunction) lossFunction).threshold);
+        else if (lossFunction instanceof SGD.LogLossFunction)
+            return LOG_LOSS_KERNEL;
+        else if (lossFunction instanceof SGD.ExponentialLossFunction)
+            return EXPONENTIAL_LOSS_KERNEL;
+        else if (lossFunction instanceof SGD.HuberLossFunction)
+            return new HuberLossKernel(((SGD.HuberLossFunction) lossFunction).c);
+        else if (lossFunction instanceof SGD.EpsilonInsensitiveLossFunction)
+            return new EpsilonInsensitiveLossKernel(((SGD.EpsilonInsensitiveLossFunction) lossFunction).epsilon);
+        else
+            throw new IllegalStateException("no kernel for " + lossFunction.getClass().getName());
+    }
+}
@@ -0,0 +1,607 @@
+package de.tuberlin.sgd.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+public final class SGDOptimizers {
+
+    // Disallow instantiation.
+    private SGDOptimizers() {}
+
+    // ---------------------------------------------------
+
+    public enum Method {
+
+        /** w = w - eta * g */
+        PLAIN,
+
+        /** v = beta * v + eta * g, w = w - v */
+        MOMENTUM,
+
+        /** G = G + g², w = w - eta * g / (sqrt(G) + eps) */
+        ADAGRAD,
+
+        /** E = rho * E + (1 - rho) * g², w = w - eta * g / (sqrt(E) + eps) */
+        RMSPROP,
+
+        /** Bias corrected first and second moments, see Kingma and Ba. */
+        ADAM
+    }
+
+    // ---------------------------------------------------
+
+    /**
+     * Applies a gradient to the parameters. The kernels compute the derivative
+     * d of the loss for a sample, the gradient is then d * (1, x_i). Optimizers
+     * with per-parameter state keep it in primitive arrays sized to the
+     * parameters, allocated once, so no update allocates anything.
+     */
+    public static abstract class Optimizer {
+
+        /** Applies the gradient d * (1, x_i) of sample i with learning rate eta. */
+        public abstract void update(final double[] w,
+                                    final double[][] X,
+                                    final int i,
+                                    final double d,
+                                    final double eta);
+
+        /**
+         * Applies the averaged gradient of the rows [start, start + n), d holds
+         * the derivative of the loss for each row of the block.
+         */
+        public abstract void updateBlock(final double[] w,
+                                         final double[][] X,
+                                         final int start,
+                                         final int n,
+                                         final double[] d,
+                                         final double eta);
+
+        /**
+         * Called instead of update for sample i if the derivative of its loss is
+         * zero, e.g. for a margin above the threshold of the hinge loss. Plain
+         * SGD and the adaptive optimizers leave w and their state as it is, the
+         * penalties still shrink w, which they may defer, see getScale and flush.
+         */
+        public void skip(final double[] w, final double eta) {}
+
+        /**
+         * The factor the weights w[1..] are still to be multiplied with by steps
+         * skip deferred. Kernels that skip rows scale their dot products by it.
+         */
+        public double getScale() {
+            return 1.0;
+        }
+
+        /** Folds the steps skip deferred into w, kernels call it before an epoch returns. */
+        public void flush(final double[] w) {}
+
+        /**
+         * Called when w was replaced from outside, e.g. by the average of model
+         * averaging. Forgets state that refers to the old values of w, the
+         * default keeps everything.
+         */
+        public void paramsReplaced() {}
+
+        /** A fresh optimizer of the same kind, with its own state. */
+        public abstract Optimizer copy();
+
+        /** sum(d[r] * x[start + r]) over a block. */
+        protected static double blockGradient(final double[] x, final int start, final int n, final double[] d) {
+            double g = 0.0;
+            for (int r = 0; r < n; ++r)
+                g += d[r] * x[start + r];
+            return g;
+        }
+
+        /** sum(d[r]) over a block, the gradient of the bias. */
+        protected static double blockGradient(final int n, final double[] d) {
+            double g = 0.0;
+            for (int r = 0; r < n; ++r)
+                g += d[r];
+            return g;
+        }
+    }
+
+    // ---------------------------------------------------
+
+    /**
+     * Plain SGD, the default. Stateless, so a single instance is shared.
+     */
+    public static final class PlainOptimizer extends Optimizer {
+
+        @Override
+        public void update(final double[] w,
+                           final double[][] X,
+                           final int i,
+                           final double d,
+                           final double eta) {
+            final double g = eta * d;
+            w[0] = w[0] - g;
+            for (int j = 0; j < X.length; ++j)
+                w[j + 1] = w[j + 1] - g * X[j][i];
+        }
+
+        @Override
+        public void updateBlock(final double[] w,
+                                final double[][] X,
+                                final int start,
+                                final int n,
+                                final double[] d,
+                                final double eta) {
+            final double scale = eta / n;
+            w[0] = w[0] - scale * blockGradient(n, d);
+            for (int j = 0; j < X.length; ++j)
+                w[j + 1] = w[j + 1] - scale * blockGradient(X[j], start, n, d);
+        }
+
+        @Override
+        public Optimizer copy() {
+            return this;
+        }
+    }
+
+    /**
+     * Plain SGD that also keeps the average of all iterates (ASGD). With
+     * w_T = w_0 - sum(g_k) the average of w_1 .. w_T is w_T + sum(k * g_k) / T,
+     * so a step only adds k * g_k to an accumulator, touching the same entries
+     * as the step itself. The average is formed once, at the end. A sample
+     * without a gradient is an iterate as well, it only advances k.
+     */
+    public static final class AveragedOptimizer extends Optimizer {
+
+        private final double[] weightedSteps;
+
+        private long numSteps;
+
+        public AveragedOptimizer(final int numParams) {
+            this.weightedSteps = new double[numParams];
+        }
+
+        @Override
+        public void update(final double[] w,
+                           final double[][] X,
+                           final int i,
+                           final double d,
+                           final double eta) {
+            final double g = eta * d;
+            final double kg = numSteps++ * g;
+            w[0] = w[0] - g;
+            weightedSteps[0] += kg;
+            for (int j = 0; j < X.length; ++j) {
+                w[j + 1] = w[j + 1] - g * X[j][i];
+                weightedSteps[j + 1] += kg * X[j][i];
+            }
+        }
+
+        @Override
+        public void updateBlock(final double[] w,
+                                final double[][] X,
+                                final int start,
+                                final int n,
+                                final double[] d,
+                                final double eta) {
+            final double scale = eta / n;
+            final double k = numSteps++;
+            final double g0 = scale * blockGradient(n, d);
+            w[0] = w[0] - g0;
+            weightedSteps[0] += k * g0;
+            for (int j = 0; j < X.length; ++j) {
+                final double gj = scale * blockGradient(X[j], start, n, d);
+                w[j + 1] = w[j + 1] - gj;
+                weightedSteps[j + 1] += k * gj;
+            }
+        }
+
+        @Override
+        public void skip(final double[] w, final double eta) {
+            ++numSteps;
+        }
+
+        @Override
+        public Optimizer copy() {
+            return new AveragedOptimizer(weightedSteps.length);
+        }
+
+        public long getNumSteps() {
+            return numSteps;
+        }
+
+        /** Replaces the last iterate w by the average of all iterates. */
+        public void average(final double[] w) {
+            Preconditions.checkArgument(w.length == weightedSteps.length);
+            if (numSteps == 0)
+                return;
+            for (int m = 0; m < w.length; ++m)
+                w[m] += weightedSteps[m] / numSteps;
+        }
+    }
+
+    /**
+     * Plain SGD with the penalty l1 * |w|_1 + l2 / 2 * |w|², the bias is not
+     * penalized. The columns are dense, so a step touches every weight anyway,
+     * and the L2 decay is folded into that loop instead of a separate pass.
+     * L1 uses the cumulative penalty of Tsuruoka et al.: a weight is clipped at
+     * zero instead of crossing it, and only receives the penalty it is behind
+     * on, so it also works when a weight is not touched by every step. Samples
+     * without a gradient still take the penalty step, so the penalty does not
+     * depend on how many rows violate a margin. Such a step touches no weight,
+     * like SparseWeightVector.scale its L2 decay is multiplied into a scale and
+     * its L1 penalty into the cumulative penalty, both are folded into w by the
+     * next update, by flush or once the scale falls below MIN_SCALE. As in
+     * SparseWeightVector.truncate, the deferred L1 penalty is then not decayed
+     * by the L2 steps taken after it.
+     */
+    public static final class RegularizedOptimizer extends Optimizer {
+
+        /** Below this the scale is folded into w, so the weights do not underflow. */
+        static final double MIN_SCALE = 1e-9;
+
+        private final double l1;
+
+        private final double l2;
+
+        /** The L1 penalty each weight actually received so far. */
+        private final double[] appliedPenalty;
+
+        /** The L1 penalty each weight could have received so far. */
+        private double totalPenalty;
+
+        /** The L2 decay of the skipped steps, the weights are w[1..] times scale. */
+        private double scale = 1.0;
+
+        /** Whether skipped steps are not folded into w yet. */
+        private boolean deferred;
+
+        public RegularizedOptimizer(final int numParams, final double l1, final double l2) {
+            Preconditions.checkArgument(l1 >= 0.0 && l2 >= 0.0);
+            this.l1 = l1;
+            this.l2 = l2;
+            this.appliedPenalty = new double[numParams];
+        }
+
+        private void truncate(final double[] w, final int m) {
+            final double z = w[m];
+            if (z > 0.0)
+                w[m] = Math.max(0.0, z - (totalPenalty + appliedPenalty[m]));
+            else if (z < 0.0)
+                w[m] = Math.min(0.0, z + (totalPenalty - appliedPenalty[m]));
+            appliedPenalty[m] += w[m] - z;
+        }
+
+        @Override
+        public void update(final double[] w,
+                           final double[][] X,
+                           final int i,
+                           final double d,
+                           final double eta) {
+            final double g = eta * d;
+            final double decay = Math.max(0.0, 1.0 - eta * l2) * scale;
+            totalPenalty += eta * l1;
+            scale = 1.0;
+            deferred = false;
+            w[0] = w[0] - g;
+            for (int j = 0; j < X.length; ++j) {
+                w[j + 1] = decay * w[j + 1] - g * X[j][i];
+                if (l1 > 0.0)
+                    truncate(w, j + 1);
+            }
+        }
+
+        @Override
+        public void updateBlock(final double[] w,
+                                final double[][] X,
+                                final int start,
+                                final int n,
+                                final double[] d,
+                                final double eta) {
+            final double step = eta / n;
+            final double decay = Math.max(0.0, 1.0 - eta * l2) * scale;
+            totalPenalty += eta * l1;
+            scale = 1.0;
+            deferred = false;
+            w[0] = w[0] - step * blockGradient(n, d);
+            for (int j = 0; j < X.length; ++j) {
+                w[j + 1] = decay * w[j + 1] - step * blockGradient(X[j], start, n, d);
+                if (l1 > 0.0)
+                    truncate(w, j + 1);
+            }
+        }
+
+        @Override
+        public void skip(final double[] w, final double eta) {
+            scale *= Math.max(0.0, 1.0 - eta * l2);
+            totalPenalty += eta * l1;
+            deferred = true;
+            if (scale < MIN_SCALE)
+                flush(w);
+        }
+
+        @Override
+        public double getScale() {
+            return scale;
+        }
+
+        @Override
+        public void flush(final double[] w) {
+            if (!deferred)
+                return;
+            for (int m = 1; m < w.length; ++m) {
+                w[m] = scale * w[m];
+                if (l1 > 0.0)
+                    truncate(w, m);
+            }
+            scale = 1.0;
+            deferred = false;
+        }
+
+        /**
+         * The cumulative L1 penalty starts over and deferred steps are dropped,
+         * the penalty received so far belongs to the old w.
+         */
+        @Override
+        public void paramsReplaced() {
+            Arrays.fill(appliedPenalty, 0.0);
+            totalPenalty = 0.0;
+            scale = 1.0;
+            deferred = false;
+        }
+
+        @Override
+        public Optimizer copy() {
+            return new RegularizedOptimizer(appliedPenalty.length, l1, l2);
+        }
+    }
+
+    /**
+     * SGD with classical momentum, the velocity smooths the updates.
+     */
+    public static final class MomentumOptimizer extends Optimizer {
+
+        private final double beta;
+
+        private final double[] velocity;
+
+        public MomentumOptimizer(final int numParams, final double beta) {
+            Preconditions.checkArgument(beta >= 0.0 && beta < 1.0);
+            this.beta = beta;
+            this.velocity = new double[numParams];
+        }
+
+        private void step(final double[] w, final int m, final double g, final double eta) {
+            velocity[m] = beta * velocity[m] + eta * g;
+            w[m] = w[m] - velocity[m];
+        }
+
+        @Override
+        public void update(final double[] w,
+                           final double[][] X,
+                           final int i,
+                           final double d,
+                           final double eta) {
+            step(w, 0, d, eta);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, d * X[j][i], eta);
+        }
+
+        @Override
+        public void updateBlock(final double[] w,
+                                final double[][] X,
+                                final int start,
+                                final int n,
+                                final double[] d,
+                                final double eta) {
+            step(w, 0, blockGradient(n, d) / n, eta);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, blockGradient(X[j], start, n, d) / n, eta);
+        }
+
+        @Override
+        public Optimizer copy() {
+            return new MomentumOptimizer(velocity.length, beta);
+        }
+    }
+
+    /**
+     * AdaGrad, every parameter gets a learning rate scaled down by its
+     * accumulated squared gradients.
+     */
+    public static final class AdaGradOptimizer extends Optimizer {
+
+        private final double epsilon;
+
+        private final double[] sumSquares;
+
+        public AdaGradOptimizer(final int numParams, final double epsilon) {
+            Preconditions.checkArgument(epsilon > 0.0);
+            this.epsilon = epsilon;
+            this.sumSquares = new double[numParams];
+        }
+
+        private void step(final double[] w, final int m, final double g, final double eta) {
+            sumSquares[m] += g * g;
+            w[m] = w[m] - eta * g / (Math.sqrt(sumSquares[m]) + epsilon);
+        }
+
+        @Override
+        public void update(final double[] w,
+                           final double[][] X,
+                           final int i,
+                           final double d,
+                           final double eta) {
+            step(w, 0, d, eta);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, d * X[j][i], eta);
+        }
+
+        @Override
+        public void updateBlock(final double[] w,
+                                final double[][] X,
+                                final int start,
+                                final int n,
+                                final double[] d,
+                                final double eta) {
+            step(w, 0, blockGradient(n, d) / n, eta);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, blockGradient(X[j], start, n, d) / n, eta);
+        }
+
+        @Override
+        public Optimizer copy() {
+            return new AdaGradOptimizer(sumSquares.length, epsilon);
+        }
+    }
+
+    /**
+     * RMSProp, like AdaGrad but with an exponentially decaying average of
+     * the squared gradients, so the learning rate does not vanish.
+     */
+    public static final class RMSPropOptimizer extends Optimizer {
+
+        private final double rho;
+
+        private final double epsilon;
+
+        private final double[] meanSquares;
+
+        public RMSPropOptimizer(final int numParams, final double rho, final double epsilon) {
+            Preconditions.checkArgument(rho >= 0.0 && rho < 1.0);
+            Preconditions.checkArgument(epsilon > 0.0);
+            this.rho = rho;
+            this.epsilon = epsilon;
+            this.meanSquares = new double[numParams];
+        }
+
+        private void step(final double[] w, final int m, final double g, final double eta) {
+            meanSquares[m] = rho * meanSquares[m] + (1.0 - rho) * g * g;
+            w[m] = w[m] - eta * g / (Math.sqrt(meanSquares[m]) + epsilon);
+        }
+
+        @Override
+        public void update(final double[] w,
+                           final double[][] X,
+                           final int i,
+                           final double d,
+                           final double eta) {
+            step(w, 0, d, eta);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, d * X[j][i], eta);
+        }
+
+        @Override
+        public void updateBlock(final double[] w,
+                                final double[][] X,
+                                final int start,
+                                final int n,
+                                final double[] d,
+                                final double eta) {
+            step(w, 0, blockGradient(n, d) / n, eta);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, blockGradient(X[j], start, n, d) / n, eta);
+        }
+
+        @Override
+        public Optimizer copy() {
+            return new RMSPropOptimizer(meanSquares.length, rho, epsilon);
+        }
+    }
+
+    /**
+     * Adam, with bias corrected estimates of the first and second moment of
+     * the gradients. The powers of beta1 and beta2 are kept as running
+     * products, so a step costs no Math.pow.
+     */
+    public static final class AdamOptimizer extends Optimizer {
+
+        private final double beta1;
+
+        private final double beta2;
+
+        private final double epsilon;
+
+        private final double[] m1;
+
+        private final double[] m2;
+
+        private double beta1t = 1.0;
+
+        private double beta2t = 1.0;
+
+        public AdamOptimizer(final int numParams, final double beta1, final double beta2, final double epsilon) {
+            Preconditions.checkArgument(beta1 >= 0.0 && beta1 < 1.0);
+            Preconditions.checkArgument(beta2 >= 0.0 && beta2 < 1.0);
+            Preconditions.checkArgument(epsilon > 0.0);
+            this.beta1 = beta1;
+            this.beta2 = beta2;
+            this.epsilon = epsilon;
+            this.m1 = new double[numParams];
+            this.m2 = new double[numParams];
+        }
+
+        private void step(final double[] w, final int m, final double g, final double eta1, final double c2) {
+            m1[m] = beta1 * m1[m] + (1.0 - beta1) * g;
+            m2[m] = beta2 * m2[m] + (1.0 - beta2) * g * g;
+            w[m] = w[m] - eta1 * m1[m] / (Math.sqrt(m2[m] * c2) + epsilon);
+        }
+
+        @Override
+        public void update(final double[] w,
+                           final double[][] X,
+                           final int i,
+                           final double d,
+                           final double eta) {
+            beta1t *= beta1;
+            beta2t *= beta2;
+            final double eta1 = eta / (1.0 - beta1t);
+            final double c2 = 1.0 / (1.0 - beta2t);
+            step(w, 0, d, eta1, c2);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, d * X[j][i], eta1, c2);
+        }
+
+        @Override
+        public void updateBlock(final double[] w,
+                                final double[][] X,
+                                final int start,
+                                final int n,
+                                final double[] d,
+                                final double eta) {
+            beta1t *= beta1;
+            beta2t *= beta2;
+            final double eta1 = eta / (1.0 - beta1t);
+            final double c2 = 1.0 / (1.0 - beta2t);
+            step(w, 0, blockGradient(n, d) / n, eta1, c2);
+            for (int j = 0; j < X.length; ++j)
+                step(w, j + 1, blockGradient(X[j], start, n, d) / n, eta1, c2);
+        }
+
+        @Override
+        public Optimizer copy() {
+            return new AdamOptimizer(m1.length, beta1, beta2, epsilon);
+        }
+    }
+
+    // ---------------------------------------------------
+
+    public static final Optimizer PLAIN = new PlainOptimizer();
+
+    /** Creates an optimizer with the usual default hyperparameters. */
+    public static Optimizer create(final Method method, final int numParams) {
+        Preconditions.checkNotNull(method);
+        Preconditions.checkArgument(numParams > 0);
+        switch (method) {
+            case PLAIN:
+                return PLAIN;
+            case MOMENTUM:
+                return new MomentumOptimizer(numParams, 0.9);
+            case ADAGRAD:
+                return new AdaGradOptimizer(numParams, 1e-8);
+            case RMSPROP:
+                return new RMSPropOptimizer(numParams, 0.9, 1e-8);
+            case ADAM:
+                return new AdamOptimizer(numParams, 0.9, 0.999, 1e-8);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+}
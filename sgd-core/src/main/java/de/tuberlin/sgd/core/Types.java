@@ -126,8 +126,8 @@ public final class Types {
             this.fieldOffsets = new int[fields.length];
             int size = 0, i = 0;
             for (final ITypeInformation type : fields) {
-                size += type.size();
                 fieldOffsets[i++] = baseOffset + size;
+                size += type.size();
             }
             this.size = size;
         }
@@ -172,7 +172,7 @@ public final class Types {
 
         @Override
         public int getFieldOffset(int pos) {
-            return 0;
+            return fieldOffsets[pos];
         }
 
         @Override
@@ -244,7 +244,7 @@ public final class Types {
         }
 
         public ITypeInformation build() {
-            return build(offset);
+            return build(baseOffset);
         }
 
 
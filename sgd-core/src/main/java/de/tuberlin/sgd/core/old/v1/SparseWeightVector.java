@@ -24,6 +24,13 @@ public class SparseWeightVector implements Cloneable, Serializable
 
     /** The weights in the vector indexed by {@link Feature}. */
     protected HashMap weights;
+    /**
+     * All weights are multiplied by this factor, the map holds the weights
+     * divided by it.  This way {@link #scale(double)} takes constant time.
+     **/
+    protected double scale = 1;
+    /** Below this, {@link #scale} is folded into the map to avoid underflow. */
+    protected static final double minScale = 1e-9;
 
 
     /** Simply instantiates {@link #weights}. */
@@ -81,7 +88,7 @@ public class SparseWeightVector implements Cloneable, Serializable
         {
             I.next();
             Double dw = I.getWeight();
-            double w = dw == null ? defaultW : dw.doubleValue();
+            double w = dw == null ? defaultW : scale * dw.doubleValue();
             sum += w * I.getCurrentFeatureStrength();
         }
 
@@ -130,14 +137,105 @@ public class SparseWeightVector implements Cloneable, Serializable
         {
             I.next();
             Double dw = I.getWeight();
-            double w = dw == null ? defaultW : dw.doubleValue();
-            I.setWeight(w + I.getCurrentFeatureStrength() * factor, defaultW);
+            double w = dw == null ? defaultW : scale * dw.doubleValue();
+            I.setWeight((w + I.getCurrentFeatureStrength() * factor) / scale,
+                    defaultW / scale);
+        }
+    }
+
+
+    /**
+     * Multiplies every weight in the vector by the given factor in constant
+     * time, as needed for L2 weight decay.
+     *
+     * @param factor   The scaling factor.
+     **/
+    public void scale(double factor)
+    {
+        scale *= factor;
+        if (Math.abs(scale) < minScale) rescale();
+    }
+
+
+    /**
+     * Folds {@link #scale} into the weights in the map and resets it to 1.
+     * This touches every weight, so it is only done when the scale becomes
+     * too small.
+     **/
+    protected void rescale()
+    {
+        for (Iterator<Map.Entry<Feature, Object>> I = entryIterator();
+             I.hasNext(); )
+        {
+            Map.Entry<Feature, Object> e = I.next();
+            Object value = e.getValue();
+            if (value instanceof Double)
+                e.setValue(Double.valueOf(scale * ((Double) value).doubleValue()));
+            else
+            {
+                double[] w = (double[]) value;
+                for (int i = 0; i < w.length; ++i) w[i] *= scale;
+            }
+        }
+
+        scale = 1;
+    }
+
+
+    /**
+     * Iterates over the entries of {@link #weights}, each maps a
+     * {@link Feature} to a <code>Double</code> or a <code>double[]</code>.
+     *
+     * @return An iterator over the entries of {@link #weights}.
+     **/
+    @SuppressWarnings("unchecked")
+    protected Iterator<Map.Entry<Feature, Object>> entryIterator()
+    {
+        return ((Map<Feature, Object>) weights).entrySet().iterator();
+    }
+
+
+    /**
+     * Applies an L1 penalty lazily, as the cumulative penalty of Tsuruoka et
+     * al.  Only the weights of the features in the argument vector are
+     * visited.  Each of them receives the part of the total penalty it has
+     * not received yet, and is clipped at zero instead of crossing it.
+     *
+     * @param example  A vector of features extracted from an example object.
+     * @param total    The L1 penalty every weight could have received so far.
+     * @param applied  The penalty each weight actually received so far, it is
+     *                 updated by this method.
+     **/
+    public void truncate(FeatureVector example, double total,
+                         SparseWeightVector applied)
+    {
+        WeightIterator I = weightIterator(example);
+        WeightIterator J = applied.weightIterator(example);
+
+        while (I.hasNext())
+        {
+            I.next();
+            J.next();
+            Double dw = I.getWeight();
+            if (dw == null) continue;
+            Double dq = J.getWeight();
+            double q = dq == null ? 0 : applied.scale * dq.doubleValue();
+            double z = scale * dw.doubleValue();
+            double w = z;
+            if (z > 0) w = Math.max(0, z - (total + q));
+            else if (z < 0) w = Math.min(0, z + (total - q));
+            I.setWeight(w / scale);
+            J.setWeight((q + w - z) / applied.scale);
         }
     }
 
 
     /** Empties the weight map. */
-    public void clear() { weights.clear(); }
+    public void clear()
+    {
+        weights.clear();
+        scale = 1;
+    }
 
 
     /**
@@ -180,15 +278,16 @@ public class SparseWeightVector implements Cloneable, Serializable
             for (int j = 0; key.length() + j < biggest; ++j) result.append(" ");
 
             Object weight = entries[i].getValue();
-            if (weight instanceof Double) result.append(weight + "\n");
+            if (weight instanceof Double)
+                result.append(scale * ((Double) weight).doubleValue() + "\n");
             else
             {
                 double[] w = (double[]) weight;
-                result.append(w[0] + "\n");
+                result.append(scale * w[0] + "\n");
                 for (int j = 1; j < w.length; ++j)
                 {
                     for (int k = 0; k < biggest; ++k) result.append(" ");
-                    result.append(w[j] + "\n");
+                    result.append(scale * w[j] + "\n");
                 }
             }
         }
@@ -218,14 +317,16 @@ public class SparseWeightVector implements Cloneable, Serializable
     {
         SparseWeightVector clone = new SparseWeightVector();
 
-        for (Iterator I = weights.entrySet().iterator(); I.hasNext(); )
+        for (Iterator<Map.Entry<Feature, Object>> I = entryIterator();
+             I.hasNext(); )
         {
-            Map.Entry e = (Map.Entry) I.next();
+            Map.Entry<Feature, Object> e = I.next();
             Object value = e.getValue();
             if (value instanceof Double) clone.weights.put(e.getKey(), value);
             else clone.weights.put(e.getKey(), ((double[]) value).clone());
         }
 
+        clone.scale = scale;
         return clone;
     }
 
@@ -396,11 +497,11 @@ public class SparseWeightVector implements Cloneable, Serializable
                         if (weightArray != null)
                         {
                             if (currentFeature.totalValues() == 2)
-                                return new Double(weightArray[arrayIndex]);
+                                return Double.valueOf(weightArray[arrayIndex]);
                             else
                             {
                                 DiscreteFeature df = (DiscreteFeature) currentFeature;
-                                return new Double(weightArray[arrayIndex * df.totalValues()
+                                return Double.valueOf(weightArray[arrayIndex * df.totalValues()
                                         + df.getValueIndex()]);
                             }
                         }
@@ -415,14 +516,14 @@ public class SparseWeightVector implements Cloneable, Serializable
                     else if (weightArray != null)
                     {
                         DiscreteFeature df = (DiscreteFeature) currentFeature;
-                        return new Double(weightArray[df.getValueIndex()]);
+                        return Double.valueOf(weightArray[df.getValueIndex()]);
                     }
                 }
                 else return (Double) weights.get(currentFeature);
             }
             else if (currentFeature.fromArray())
             {
-                if (weightArray != null) return new Double(weightArray[arrayIndex]);
+                if (weightArray != null) return Double.valueOf(weightArray[arrayIndex]);
             }
             else
             {
@@ -510,7 +611,7 @@ public class SparseWeightVector implements Cloneable, Serializable
                                 new DiscreteFeature(currentFeature.getPackage(),
                                         currentFeature.getIdentifier(), "");
                         key.intern();
-                        weights.put(key, new Double(w));
+                        weights.put(key, Double.valueOf(w));
                     }
                     else
                     {
@@ -535,7 +636,7 @@ public class SparseWeightVector implements Cloneable, Serializable
                 else
                 {
                     currentFeature.intern();
-                    weights.put(currentFeature, new Double(w));
+                    weights.put(currentFeature, Double.valueOf(w));
                 }
             }
             else if (currentFeature.fromArray())
@@ -562,7 +663,7 @@ public class SparseWeightVector implements Cloneable, Serializable
                         new RealFeature(currentFeature.getPackage(),
                                 currentFeature.getIdentifier(), 0);
                 key.intern();
-                weights.put(key, new Double(w));
+                weights.put(key, Double.valueOf(w));
             }
         }
     }
@@ -28,6 +28,10 @@ public class StochasticGradientDescent extends Learner
     /** Default value for {@link #learningRate}. */
     public static final double defaultLearningRate = 0.1;
 
+    /** Default value for {@link #averaged}. */
+    public static final boolean defaultAveraged = false;
+    /** Default value for {@link #l2Penalty} and {@link #l1Penalty}. */
+    public static final double defaultPenalty = 0;
     /** Default for {@link #weightVector}. */
     public static final SparseWeightVector defaultWeightVector =
             new SparseWeightVector();
@@ -44,6 +48,38 @@ public class StochasticGradientDescent extends Learner
      * {@link #defaultLearningRate}.
      **/
     protected double learningRate;
+    /**
+     * Whether the average of all weight vectors seen during training is used
+     * for classification (averaged SGD); default {@link #defaultAveraged}.
+     **/
+    protected boolean averaged;
+    /**
+     * The sum of all updates, each scaled by the number of updates before it.
+     * The average weight vector is <code>weightVector - weightedUpdates /
+     * updates</code>, so it is never formed and an update stays as sparse as
+     * the example.
+     **/
+    protected SparseWeightVector weightedUpdates;
+    /** The same sum as {@link #weightedUpdates}, for the bias. */
+    protected double weightedBiasUpdates;
+    /** The number of updates made while averaging. */
+    protected int updates;
+    /**
+     * The strength of the L2 penalty <code>l2Penalty / 2 * |w|²</code>;
+     * default {@link #defaultPenalty}.  The decay it causes costs constant
+     * time per example, see {@link SparseWeightVector#scale(double)}.
+     **/
+    protected double l2Penalty;
+    /**
+     * The strength of the L1 penalty <code>l1Penalty * |w|_1</code>; default
+     * {@link #defaultPenalty}.  It is applied lazily, only to the weights of
+     * the features in the current example.
+     **/
+    protected double l1Penalty;
+    /** The L1 penalty every weight could have received so far. */
+    protected double totalL1Penalty;
+    /** The L1 penalty each weight actually received so far. */
+    protected SparseWeightVector appliedL1Penalty;
 
 
     /**
@@ -87,6 +123,11 @@ public class StochasticGradientDescent extends Learner
         super(n);
         weightVector = (SparseWeightVector) defaultWeightVector.clone();
         learningRate = r;
+        averaged = defaultAveraged;
+        weightedUpdates = new SparseWeightVector();
+        l2Penalty = defaultPenalty;
+        l1Penalty = defaultPenalty;
+        appliedL1Penalty = new SparseWeightVector();
         bias = 0;
     }
 
@@ -96,16 +137,42 @@ public class StochasticGradientDescent extends Learner
      *
      * @param n  The name of the classifier.
      * @param p  The settings of all parameters.
+     * @throws IllegalArgumentException  If <code>p</code> asks for averaging
+     *                                   and a penalty.
      **/
     public StochasticGradientDescent(String n, _Parameters p)
     {
         super(n);
+        checkPenalties(p.averaged, p.l2Penalty, p.l1Penalty);
         weightVector = p.weightVector;
         learningRate = p.learningRate;
+        averaged = p.averaged;
+        weightedUpdates = new SparseWeightVector();
+        l2Penalty = p.l2Penalty;
+        l1Penalty = p.l1Penalty;
+        appliedL1Penalty = new SparseWeightVector();
         bias = 0;
     }
 
 
+    /**
+     * Averaged stochastic gradient descent does not support penalties, its
+     * average does not account for the decay and truncation of the weights.
+     *
+     * @param a   Whether the average weight vector is used.
+     * @param l2  The strength of the L2 penalty.
+     * @param l1  The strength of the L1 penalty.
+     * @throws IllegalArgumentException  If averaging is combined with a
+     *                                   nonzero penalty.
+     **/
+    private static void checkPenalties(boolean a, double l2, double l1)
+    {
+        if (a && (l2 != 0 || l1 != 0))
+            throw new IllegalArgumentException(
+                    "Averaged stochastic gradient descent does not support penalties.");
+    }
+
+
     /**
      * Returns the current value of the {@link #learningRate} variable.
      *
@@ -123,11 +190,83 @@ public class StochasticGradientDescent extends Learner
     public void setLearningRate(double t) { learningRate = t; }
 
 
+    /**
+     * Returns the current value of the {@link #averaged} variable.
+     *
+     * @return The value of the {@link #averaged} variable.
+     **/
+    public boolean getAveraged() { return averaged; }
+
+
+    /**
+     * Sets the {@link #averaged} member variable to the specified value.  The
+     * average covers the updates made from then on.
+     *
+     * @param a  The new value for {@link #averaged}.
+     * @throws IllegalArgumentException  If a penalty is set.
+     **/
+    public void setAveraged(boolean a)
+    {
+        checkPenalties(a, l2Penalty, l1Penalty);
+        averaged = a;
+        weightedUpdates.clear();
+        weightedBiasUpdates = 0;
+        updates = 0;
+    }
+
+
+    /**
+     * Returns the current value of the {@link #l2Penalty} variable.
+     *
+     * @return The value of the {@link #l2Penalty} variable.
+     **/
+    public double getL2Penalty() { return l2Penalty; }
+
+
+    /**
+     * Sets the {@link #l2Penalty} member variable to the specified value.
+     *
+     * @param p  The new value for {@link #l2Penalty}.
+     * @throws IllegalArgumentException  If {@link #averaged} is set.
+     **/
+    public void setL2Penalty(double p)
+    {
+        checkPenalties(averaged, p, l1Penalty);
+        l2Penalty = p;
+    }
+
+
+    /**
+     * Returns the current value of the {@link #l1Penalty} variable.
+     *
+     * @return The value of the {@link #l1Penalty} variable.
+     **/
+    public double getL1Penalty() { return l1Penalty; }
+
+
+    /**
+     * Sets the {@link #l1Penalty} member variable to the specified value.
+     *
+     * @param p  The new value for {@link #l1Penalty}.
+     * @throws IllegalArgumentException  If {@link #averaged} is set.
+     **/
+    public void setL1Penalty(double p)
+    {
+        checkPenalties(averaged, l2Penalty, p);
+        l1Penalty = p;
+    }
+
+
     /** Resets the weight vector to all zeros. */
     public void forget()
     {
         weightVector.clear();
         bias = 0;
+        weightedUpdates.clear();
+        weightedBiasUpdates = 0;
+        updates = 0;
+        totalL1Penalty = 0;
+        appliedL1Penalty.clear();
     }
 
 
@@ -154,12 +293,31 @@ public class StochasticGradientDescent extends Learner
                 : "The label classifier for stochastic gradient descent must always "
                 + "produce a single real feature.";
 
+        assert !averaged || l2Penalty == 0 && l1Penalty == 0
+                : "Averaged stochastic gradient descent does not support penalties.";
+
         RealFeature labelFeature = (RealFeature) l;
+        FeatureVector features = extractor.classify(example);
         double multiplier =
                 learningRate * (labelFeature.getValue()
-                        - weightVector.dot(extractor.classify(example)) - bias);
-        weightVector.scaledAdd(extractor.classify(example), multiplier);
+                        - weightVector.dot(features) - bias);
+        if (l2Penalty != 0)
+            weightVector.scale(Math.max(0, 1 - learningRate * l2Penalty));
+        weightVector.scaledAdd(features, multiplier);
         bias += multiplier;
+
+        if (l1Penalty != 0)
+        {
+            totalL1Penalty += learningRate * l1Penalty;
+            weightVector.truncate(features, totalL1Penalty, appliedL1Penalty);
+        }
+
+        if (averaged)
+        {
+            weightedUpdates.scaledAdd(features, updates * multiplier);
+            weightedBiasUpdates += updates * multiplier;
+            ++updates;
+        }
     }
 
 
@@ -174,18 +332,21 @@ public class StochasticGradientDescent extends Learner
 
     /**
      * Simply computes the dot product of the weight vector and the feature
-     * vector extracted from the example object.
+     * vector extracted from the example object.  If {@link #averaged} is set,
+     * the average weight vector is used.
      *
      * @param example  The example to be evaluated.
      * @return         The computed feature (in a vector).
      **/
     public FeatureVector classify(Object example)
     {
+        FeatureVector features = extractor.classify(example);
+        double score = weightVector.dot(features) + bias;
+        if (averaged && updates > 0)
+            score -= (weightedUpdates.dot(features) + weightedBiasUpdates) / updates;
         return
                 new FeatureVector(
-                        new RealFeature(containingPackage, name,
-                                weightVector.dot(extractor.classify(example))
-                                        + bias));
+                        new RealFeature(containingPackage, name, score));
     }
 
 
@@ -216,6 +377,8 @@ public class StochasticGradientDescent extends Learner
         }
 
         clone.weightVector = (SparseWeightVector) weightVector.clone();
+        clone.weightedUpdates = (SparseWeightVector) weightedUpdates.clone();
+        clone.appliedL1Penalty = (SparseWeightVector) appliedL1Penalty.clone();
         return clone;
     }
 
@@ -239,6 +402,21 @@ public class StochasticGradientDescent extends Learner
          * {@link #defaultLearningRate}.
          **/
         public double learningRate;
+        /**
+         * Whether the average weight vector is used for classification;
+         * default {@link StochasticGradientDescent#defaultAveraged}.
+         **/
+        public boolean averaged;
+        /**
+         * The strength of the L2 penalty; default
+         * {@link StochasticGradientDescent#defaultPenalty}.
+         **/
+        public double l2Penalty;
+        /**
+         * The strength of the L1 penalty; default
+         * {@link StochasticGradientDescent#defaultPenalty}.
+         **/
+        public double l1Penalty;
 
 
         /** Sets all the default values. */
@@ -246,6 +424,9 @@ public class StochasticGradientDescent extends Learner
         {
             weightVector = (SparseWeightVector) defaultWeightVector.clone();
             learningRate = defaultLearningRate;
+            averaged = defaultAveraged;
+            l2Penalty = defaultPenalty;
+            l1Penalty = defaultPenalty;
         }
     }
 }
\ No newline at end of file
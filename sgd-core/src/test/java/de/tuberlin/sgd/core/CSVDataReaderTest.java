@@ -0,0 +1,425 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CSVDataReaderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static void writeTo(final File file, final String csv) throws IOException {
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(csv);
+        }
+    }
+
+    /** Writes the text to a temporary file and returns its path. */
+    private static String write(final String csv) throws IOException {
+        final File file = File.createTempFile("columns", ".csv");
+        file.deleteOnExit();
+        writeTo(file, csv);
+        return file.getPath();
+    }
+
+    private static CSVDataReader.Options options(final String... fields) {
+        final CSVDataReader.Options options = new CSVDataReader.Options();
+        options.setFields(fields);
+        options.setCache(false);
+        return options;
+    }
+
+    private static DVectorFrame read(final String csv, final DVectorFrameFile.ColumnType type) throws IOException {
+        final CSVDataReader.Options options = options("a", "b");
+        options.setColumnType(type);
+        return CSVDataReader.readCSV(write(csv), options);
+    }
+
+    private static double[] values(final DColumn column) {
+        final double[] values = new double[column.size()];
+        column.copyTo(0, values.length, values, 0);
+        return values;
+    }
+
+    private static void assertFramesEqual(final DVectorFrame expected, final DVectorFrame actual) {
+        assertArrayEquals(expected.getNames(), actual.getNames());
+        for (int c = 0; c < expected.getNumberOfVecs(); ++c) {
+            assertEquals(expected.getColumn(c).getClass(), actual.getColumn(c).getClass());
+            assertArrayEquals(values(expected.getColumn(c)), values(actual.getColumn(c)), 0.0);
+        }
+    }
+
+    /** n rows of a running number, a random integer and a random double, with a header. */
+    private static String rows(final int n) {
+        final StringBuilder csv = new StringBuilder("i,x,y\n");
+        final Random random = new Random(n);
+        for (int i = 0; i < n; ++i)
+            csv.append(i).append(',').append(random.nextInt(1000)).append(',').append(random.nextDouble()).append('\n');
+        return csv.toString();
+    }
+
+    private static void assertFails(final String csv, final CSVDataReader.Options options, final String message) throws IOException {
+        try {
+            CSVDataReader.readCSV(write(csv), options);
+            fail("read " + csv);
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    // ---------------------------------------------------
+
+    private static void assertParsedLikeValueOf(final String cell) {
+        final ByteBuffer buffer = ByteBuffer.wrap((" " + cell + " ").getBytes(StandardCharsets.US_ASCII));
+        final double parsed = CSVDataReader.parseDouble(buffer, 1, buffer.capacity() - 1);
+        assertEquals(cell, Double.doubleToRawLongBits(Double.valueOf(cell)), Double.doubleToRawLongBits(parsed));
+    }
+
+    @Test
+    public void parseDoubleMatchesValueOf() {
+        final String[] cells = {
+                "0", "-0", "+0", "-0.0", "0.0e10", "1", "-1", "+1", ".5", "-.5", "+.5", "5.", "-5.",
+                "0.1", "0.2", "0.3", "3.14159", "1e22", "1e23", "1e-22", "1e-23", "1.5E3", "1.5e+3", "2.5e-3",
+                "123456789012345", "1234567890123456", "12345678901234567890", "0.12345678901234567890",
+                "9007199254740991", "9007199254740992", "9007199254740993", "18014398509481985", "1.8446744073709552E19",
+                "4.9e-324", "2.2250738585072014E-308", "2.225073858507201E-308", "1e-320", "-1e-310",
+                "1.7976931348623157E308", "1e308", "1e309", "-1e400", "1e-400", "0.000000000000000000001",
+                "100000000000000000000000", "1e0000000000000000005", "7e-0", "NaN", "-Infinity", "Infinity"};
+        for (final String cell : cells)
+            assertParsedLikeValueOf(cell);
+    }
+
+    @Test
+    public void parseDoubleMatchesValueOfOnRandomNumbers() {
+        final Random random = new Random(42);
+        for (int n = 0; n < 20000; ++n) {
+            // Shortest representations of arbitrary doubles, subnormals and huge ones included.
+            final double value = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(value))
+                assertParsedLikeValueOf(Double.toString(value));
+
+            // Decimals of every length around the limits of the fast path.
+            final StringBuilder cell = new StringBuilder();
+            if (random.nextBoolean())
+                cell.append(random.nextBoolean() ? '-' : '+');
+            final int intDigits = random.nextInt(20);
+            final int fracDigits = random.nextInt(20);
+            for (int d = 0; d < intDigits; ++d)
+                cell.append((char) ('0' + random.nextInt(10)));
+            if (fracDigits > 0 || intDigits == 0)
+                cell.append('.');
+            for (int d = 0; d < Math.max(fracDigits, intDigits == 0 ? 1 : 0); ++d)
+                cell.append((char) ('0' + random.nextInt(10)));
+            if (random.nextBoolean())
+                cell.append('e').append(random.nextInt(700) - 350);
+            assertParsedLikeValueOf(cell.toString());
+        }
+    }
+
+    @Test
+    public void parseDoubleRejectsWhatValueOfRejects() {
+        for (final String cell : new String[] {"", "-", ".", "e5", "1e", "1e+", "1.2.3", "1,5", "abc"}) {
+            final ByteBuffer buffer = ByteBuffer.wrap(cell.getBytes(StandardCharsets.US_ASCII));
+            try {
+                CSVDataReader.parseDouble(buffer, 0, buffer.capacity());
+                fail(cell);
+            } catch (NumberFormatException e) {
+                // Like Double.valueOf.
+            }
+        }
+    }
+
+    @Test
+    public void rowsCutByTheMapWindowAreParsedFromTheNextOne() throws IOException {
+        final StringBuilder csv = new StringBuilder();
+        final Random random = new Random(7);
+        for (int i = 0; i < 200; ++i)
+            csv.append(random.nextInt(1000)).append(',').append(random.nextDouble()).append(i % 3 == 0 ? "\r\n" : "\n");
+        final String file = write(csv.toString());
+        final DVectorFrame expected = CSVDataReader.readCSV(file, options("a", "b"));
+        assertEquals(200, expected.getVec(0).elements.length);
+        // Every window size moves the cuts to other positions of the rows.
+        for (long windowSize = 32; windowSize < 96; ++windowSize)
+            assertFramesEqual(expected, CSVDataReader.parseCSV(file, options("a", "b"), windowSize, CSVDataReader.PARALLEL_READ_THRESHOLD));
+    }
+
+    @Test
+    public void rowsLongerThanTheMapWindowAreRejected() throws IOException {
+        try {
+            CSVDataReader.parseCSV(write("1,2\n1000000,2000000\n"), options("a", "b"), 8, CSVDataReader.PARALLEL_READ_THRESHOLD);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("row longer than the map window"));
+        }
+    }
+
+    @Test
+    public void strictRowsMustHaveAllValues() throws IOException {
+        assertFails("1,2,3\n4,5\n", options("a", "b", "c"), "row 1 has fewer than 3 values");
+        assertFails("1,2,3\n4,5,6\n7,8,9,10\n", options("a", "b", "c"), "row 2 has more than 3 values");
+        assertFails("1,2,3\n4,,6\n", options("a", "b", "c"), "NumberFormatException");
+    }
+
+    // ---------------------------------------------------
+
+    @Test
+    public void chunkedReadsEqualASingleChunk() throws IOException {
+        final String file = write(rows(101));
+        for (final DVectorFrameFile.ColumnType type : new DVectorFrameFile.ColumnType[] {DVectorFrameFile.ColumnType.FLOAT64, DVectorFrameFile.ColumnType.FLOAT32}) {
+            final CSVDataReader.Options single = new CSVDataReader.Options();
+            single.setHeader(true);
+            single.setColumnType(type);
+            single.setNumThreads(1);
+            final DVectorFrame expected = CSVDataReader.parseCSV(file, single, CSVDataReader.MAP_WINDOW_SIZE, 0);
+            assertEquals(101, expected.getColumn(0).size());
+
+            // 101 rows do not split evenly, and the chunks are cut by bytes, in the middle of rows.
+            for (int numThreads = 2; numThreads <= 7; ++numThreads) {
+                final CSVDataReader.Options chunked = new CSVDataReader.Options();
+                chunked.setHeader(true);
+                chunked.setColumnType(type);
+                chunked.setNumThreads(numThreads);
+                assertFramesEqual(expected, CSVDataReader.parseCSV(file, chunked, CSVDataReader.MAP_WINDOW_SIZE, 0));
+                assertFramesEqual(expected, CSVDataReader.parseCSV(file, chunked, 40, 0));
+            }
+        }
+    }
+
+    @Test
+    public void chunkedReadsNumberMalformedRowsInTheFile() throws IOException {
+        final String file = write(rows(100).replace("\n83,", "\n83,1\n"));
+        for (int numThreads = 1; numThreads <= 5; ++numThreads) {
+            final CSVDataReader.Options options = new CSVDataReader.Options();
+            options.setHeader(true);
+            options.setNumThreads(numThreads);
+            try {
+                CSVDataReader.parseCSV(file, options, CSVDataReader.MAP_WINDOW_SIZE, 0);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals(numThreads + " threads", "row 83 has fewer than 3 values", e.getMessage());
+            }
+        }
+    }
+
+    // ---------------------------------------------------
+
+    private static CSVDataReader.Options headerOptions() {
+        final CSVDataReader.Options options = new CSVDataReader.Options();
+        options.setHeader(true);
+        options.setCache(false);
+        return options;
+    }
+
+    @Test
+    public void headersNameTheFieldsAndAreSkipped() throws IOException {
+        final DVectorFrame frame = CSVDataReader.readCSV(write("\uFEFFa, \"b\" ,c\r\n1,2,3\r\n4,5,6\r\n"), headerOptions());
+        assertArrayEquals(new String[] {"a", "b", "c"}, frame.getNames());
+        assertArrayEquals(new double[] {1, 4}, frame.getVec("a").elements, 0.0);
+        assertArrayEquals(new double[] {3, 6}, frame.getVec("c").elements, 0.0);
+
+        // Fields given with a header rename the columns.
+        final CSVDataReader.Options renamed = headerOptions();
+        renamed.setFields(new String[] {"x", "y", "z"});
+        assertArrayEquals(new double[] {2, 5}, CSVDataReader.readCSV(write("a,b,c\n1,2,3\n4,5,6\n"), renamed).getVec("y").elements, 0.0);
+    }
+
+    @Test
+    public void columnsAreProjectedByNameInTheOrderOfTheSelection() throws IOException {
+        final CSVDataReader.Options options = headerOptions();
+        options.setColumnNames("c", "a");
+        final DVectorFrame frame = CSVDataReader.readCSV(write("a,b,c\n1,2,3\n4,5,6\n"), options);
+        assertArrayEquals(new String[] {"c", "a"}, frame.getNames());
+        assertArrayEquals(new double[] {3, 6}, frame.getVec(0).elements, 0.0);
+        assertArrayEquals(new double[] {1, 4}, frame.getVec(1).elements, 0.0);
+    }
+
+    @Test
+    public void columnsAreProjectedByIndexInTheOrderOfTheSelection() throws IOException {
+        // Without a header the columns after the last selected one are not checked.
+        final CSVDataReader.Options options = options("third", "first");
+        options.setColumnIndices(2, 0);
+        final DVectorFrame frame = CSVDataReader.readCSV(write("1,2,3,x\n4,5,6\n"), options);
+        assertArrayEquals(new double[] {3, 6}, frame.getVec("third").elements, 0.0);
+        assertArrayEquals(new double[] {1, 4}, frame.getVec("first").elements, 0.0);
+
+        // With a header the fields default to the selected names.
+        final CSVDataReader.Options named = headerOptions();
+        named.setColumnIndices(1);
+        final DVectorFrame header = CSVDataReader.readCSV(write("a,b,c\n1,2,3\n"), named);
+        assertArrayEquals(new String[] {"b"}, header.getNames());
+        assertArrayEquals(new double[] {2}, header.getVec(0).elements, 0.0);
+    }
+
+    @Test
+    public void invalidSelectionsAreRejected() throws IOException {
+        final CSVDataReader.Options unknown = headerOptions();
+        unknown.setColumnNames("a", "z");
+        assertFails("a,b\n1,2\n", unknown, "no column z in the header");
+
+        final CSVDataReader.Options headerless = options("a");
+        headerless.setColumnNames("a");
+        assertFails("1,2\n", headerless, "columns selected by name need a header");
+
+        final CSVDataReader.Options outside = headerOptions();
+        outside.setColumnIndices(0, 2);
+        assertFails("a,b\n1,2\n", outside, "column index 2 outside the header");
+
+        final CSVDataReader.Options twice = options("a", "b");
+        twice.setColumnIndices(1, 1);
+        assertFails("1,2\n", twice, "column 1 selected twice");
+
+        final CSVDataReader.Options fieldCount = options("a", "b");
+        fieldCount.setColumnIndices(0);
+        assertFails("1,2\n", fieldCount, "2 fields for 1 columns");
+    }
+
+    // ---------------------------------------------------
+
+    private List<Path> sidecars() throws IOException {
+        final List<Path> sidecars = new ArrayList<>();
+        try (final DirectoryStream<Path> paths = Files.newDirectoryStream(folder.getRoot().toPath(), "*" + CSVDataReader.CACHE_SUFFIX)) {
+            for (final Path path : paths)
+                sidecars.add(path);
+        }
+        return sidecars;
+    }
+
+    /** Reads the file with the default cache and checks whether the sidecar was hit. */
+    private static DVectorFrame readCached(final File file, final boolean hit, final String... fields) {
+        final long hits = CSVDataReader.getCacheHits();
+        final long misses = CSVDataReader.getCacheMisses();
+        final DVectorFrame frame = CSVDataReader.readCSV(file.getPath(), fields);
+        assertEquals(hit ? hits + 1 : hits, CSVDataReader.getCacheHits());
+        assertEquals(hit ? misses : misses + 1, CSVDataReader.getCacheMisses());
+        return frame;
+    }
+
+    @Test
+    public void sidecarsServeRepeatedReads() throws IOException {
+        final File file = folder.newFile("data.csv");
+        writeTo(file, "1,2\n3,4\n");
+        final DVectorFrame parsed = readCached(file, false, "a", "b");
+        assertEquals(1, sidecars().size());
+        final DVectorFrame cached = readCached(file, true, "a", "b");
+        assertFramesEqual(parsed, cached);
+        assertArrayEquals(new double[] {2, 4}, cached.getVec("b").elements, 0.0);
+    }
+
+    @Test
+    public void sidecarsOfChangedFilesAreReplaced() throws IOException {
+        final File file = folder.newFile("data.csv");
+        writeTo(file, "1,2\n3,4\n");
+        readCached(file, false, "a", "b");
+        final Path first = sidecars().get(0);
+
+        // A new size.
+        writeTo(file, "1,2\n3,4\n5,6\n");
+        assertArrayEquals(new double[] {1, 3, 5}, readCached(file, false, "a", "b").getVec("a").elements, 0.0);
+        assertEquals(1, sidecars().size());
+        assertTrue(!sidecars().contains(first));
+        readCached(file, true, "a", "b");
+
+        // The same size, only the modification time tells the versions apart.
+        final FileTime modified = Files.getLastModifiedTime(file.toPath());
+        writeTo(file, "7,2\n3,4\n5,6\n");
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified.toMillis() + 10000));
+        assertArrayEquals(new double[] {7, 3, 5}, readCached(file, false, "a", "b").getVec("a").elements, 0.0);
+        assertEquals(1, sidecars().size());
+        readCached(file, true, "a", "b");
+    }
+
+    @Test
+    public void projectionsAreCachedApart() throws IOException {
+        final File file = folder.newFile("data.csv");
+        writeTo(file, "1,2\n3,4\n");
+        readCached(file, false, "a", "b");
+        final DVectorFrame renamed = readCached(file, false, "x", "y");
+        assertArrayEquals(new String[] {"x", "y"}, renamed.getNames());
+        assertEquals(2, sidecars().size());
+
+        final CSVDataReader.Options floats = new CSVDataReader.Options();
+        floats.setFields(new String[] {"a", "b"});
+        floats.setColumnType(DVectorFrameFile.ColumnType.FLOAT32);
+        final long misses = CSVDataReader.getCacheMisses();
+        assertTrue(CSVDataReader.readCSV(file.getPath(), floats).getColumn(0) instanceof FloatDVector);
+        assertEquals(misses + 1, CSVDataReader.getCacheMisses());
+        assertEquals(3, sidecars().size());
+
+        readCached(file, true, "a", "b");
+        readCached(file, true, "x", "y");
+    }
+
+    @Test
+    public void damagedSidecarsAreParsedAgain() throws IOException {
+        final File file = folder.newFile("data.csv");
+        writeTo(file, "1,2\n3,4\n");
+        readCached(file, false, "a", "b");
+        Files.write(sidecars().get(0), new byte[] {1, 2, 3});
+        assertArrayEquals(new double[] {1, 3}, readCached(file, false, "a", "b").getVec("a").elements, 0.0);
+        readCached(file, true, "a", "b");
+    }
+
+    @Test
+    public void disabledCachesWriteNoSidecar() throws IOException {
+        final File file = folder.newFile("data.csv");
+        writeTo(file, "1,2\n3,4\n");
+        CSVDataReader.readCSV(file.getPath(), options("a", "b"));
+        assertEquals(0, sidecars().size());
+    }
+
+    // ---------------------------------------------------
+
+    @Test
+    public void float32ColumnsHoldTheRoundedValues() throws IOException {
+        final DVectorFrame frame = read("0.1,1e6\n-2.5,3.3333333\n7,0\n", DVectorFrameFile.ColumnType.FLOAT32);
+        final FloatDVector b = (FloatDVector) frame.getColumn(1);
+        assertEquals(3, b.size());
+        assertEquals((float) 1e6, b.get(0), 0.0);
+        assertEquals((float) 3.3333333, b.get(1), 0.0);
+        assertEquals((float) 0.1, frame.getColumn(0).get(0), 0.0);
+    }
+
+    @Test
+    public void quantizedColumnsKeepThePrecisionOfValuesFarFromZero() throws IOException {
+        // As floats the values would all round to 1000000.
+        final DVectorFrame frame = read("0,1000000.001\n0,1000000.002\n0,1000000.004\n", DVectorFrameFile.ColumnType.INT16);
+        final QuantizedDVector b = (QuantizedDVector) frame.getColumn(1);
+        assertTrue(b.scale > 0.0);
+        assertEquals(1000000.001, b.get(0), b.scale / 2 + 1e-9);
+        assertEquals(1000000.002, b.get(1), b.scale / 2 + 1e-9);
+        assertEquals(1000000.004, b.get(2), b.scale / 2 + 1e-9);
+    }
+
+    @Test
+    public void relativeBuffersStartAtTheFirstFiniteValue() {
+        final FloatColumnBuffer buffer = new FloatColumnBuffer(2, true);
+        buffer.add(Double.NaN);
+        buffer.add(0.0);
+        buffer.add(1e9 + 0.5);
+        assertEquals(0.0, buffer.getBase(), 0.0);
+        assertTrue(Double.isNaN(buffer.get(0)));
+        assertEquals(0.0, buffer.get(1), 0.0);
+        assertEquals(3, buffer.size());
+    }
+}
@@ -0,0 +1,121 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DVectorFrameFileTest {
+
+    private static final String[] NAMES = {"float64", "float32", "int16", "int8", "off-heap"};
+
+    private static final int NUM_ROWS = 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** A frame with a column of every type, the off-heap one is written as FLOAT64. */
+    private static DVectorFrame frame() {
+        final Random random = new Random(NUM_ROWS);
+        final DVector values = new DVector(NUM_ROWS);
+        for (int i = 0; i < NUM_ROWS; ++i)
+            values.elements[i] = random.nextGaussian() * 100.0;
+        final DVectorFrame frame = new DVectorFrame(NAMES);
+        frame.setVec(0, values);
+        frame.setColumn(1, FloatDVector.copyOf(values));
+        frame.setColumn(2, QuantizedDVector.quantize(values, 16));
+        frame.setColumn(3, QuantizedDVector.quantize(values, 8));
+        frame.setColumn(4, OffHeapDVector.copyOf(values));
+        return frame;
+    }
+
+    private static double[] values(final DColumn column) {
+        final double[] values = new double[column.size()];
+        column.copyTo(0, values.length, values, 0);
+        return values;
+    }
+
+    private static void assertValuesEqual(final DVectorFrame expected, final DVectorFrame actual) {
+        assertArrayEquals(expected.getNames(), actual.getNames());
+        for (int c = 0; c < expected.getNumberOfVecs(); ++c)
+            assertArrayEquals(expected.getNames()[c], values(expected.getColumn(c)), values(actual.getColumn(c)), 0.0);
+    }
+
+    private static void assertQuantizationKept(final DVectorFrame expected, final DVectorFrame actual) {
+        for (final String name : new String[] {"int16", "int8"}) {
+            final QuantizedDVector e = (QuantizedDVector) expected.getColumn(name);
+            final QuantizedDVector a = (QuantizedDVector) actual.getColumn(name);
+            assertEquals(e.bits, a.bits);
+            assertEquals(e.scale, a.scale, 0.0);
+            assertEquals(e.offset, a.offset, 0.0);
+        }
+    }
+
+    private String write(final DVectorFrame frame) throws IOException {
+        final String file = folder.newFile("frame.dvcf").getPath();
+        DVectorFrameFile.write(frame, file);
+        return file;
+    }
+
+    // ---------------------------------------------------
+
+    @Test
+    public void readFramesEqualTheWrittenOnes() throws IOException {
+        final DVectorFrame frame = frame();
+        final DVectorFrame read = DVectorFrameFile.read(write(frame));
+        assertValuesEqual(frame, read);
+        assertQuantizationKept(frame, read);
+        assertTrue(read.getColumn("float64") instanceof DVector);
+        assertTrue(read.getColumn("float32") instanceof FloatDVector);
+        assertTrue(read.getColumn("off-heap") instanceof DVector);
+    }
+
+    @Test
+    public void mappedFramesEqualTheWrittenOnes() throws IOException {
+        final DVectorFrame frame = frame();
+        final DVectorFrame mapped = DVectorFrameFile.map(write(frame));
+        assertValuesEqual(frame, mapped);
+        assertQuantizationKept(frame, mapped);
+        assertTrue(mapped.getColumn("float64") instanceof OffHeapDVector);
+        assertTrue(mapped.getColumn("float32") instanceof FloatDVector);
+        assertTrue(mapped.getColumn("off-heap") instanceof OffHeapDVector);
+    }
+
+    @Test
+    public void rewrittenFilesAreReplaced() throws IOException {
+        final String file = write(frame());
+        final DVectorFrame small = new DVectorFrame(new String[] {"x"});
+        small.setVec(0, DVector.wrap(new double[] {1.0, 2.0}));
+        DVectorFrameFile.write(small, file);
+        assertValuesEqual(small, DVectorFrameFile.read(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void framesWithoutRowsAreNotWritten() throws IOException {
+        final DVectorFrame empty = new DVectorFrame(new String[] {"x"});
+        empty.setVec(0, DVector.wrap(new double[0]));
+        DVectorFrameFile.write(empty, folder.newFile().getPath());
+    }
+
+    @Test
+    public void truncatedFilesAreRejected() throws IOException {
+        final String file = write(frame());
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 8);
+        }
+        try {
+            DVectorFrameFile.read(file);
+            fail("read a truncated file");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("outside of"));
+        }
+    }
+}
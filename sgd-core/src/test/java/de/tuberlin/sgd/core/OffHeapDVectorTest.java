@@ -0,0 +1,64 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OffHeapDVectorTest {
+
+    @Test
+    public void copiesHoldTheElements() {
+        final double[] elements = {1.5, -2.0, 0.25, 8.0, 3.0};
+        final OffHeapDVector vector = OffHeapDVector.copyOf(DVector.wrap(elements.clone()));
+        assertEquals(elements.length, vector.size());
+        assertArrayEquals(elements, vector.toDVector().elements, 0.0);
+
+        vector.set(3, -7.5);
+        assertEquals(-7.5, vector.get(3), 0.0);
+        final double[] dest = new double[4];
+        vector.copyTo(1, 3, dest, 1);
+        assertArrayEquals(new double[] {0.0, -2.0, 0.25, -7.5}, dest, 0.0);
+    }
+
+    @Test
+    public void mapsDoublesFromAPosition() throws IOException {
+        final File file = File.createTempFile("offheap", ".bin");
+        file.deleteOnExit();
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final ByteBuffer bytes = ByteBuffer.allocate(16 + 3 * 8).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.position(16);
+            bytes.putDouble(1.0).putDouble(-0.5).putDouble(42.0);
+            raf.write(bytes.array());
+
+            final OffHeapDVector vector = OffHeapDVector.map(raf.getChannel(), FileChannel.MapMode.READ_ONLY, 16, 3, ByteOrder.LITTLE_ENDIAN);
+            assertEquals(-0.5, vector.get(1), 0.0);
+            assertArrayEquals(new double[] {1.0, -0.5, 42.0}, vector.toDVector().elements, 0.0);
+        }
+    }
+
+    @Test
+    public void elementsAreLaidOutAsDoubles() {
+        final OffHeapDVector vector = OffHeapDVector.allocate(3);
+        assertEquals(Types.PrimitiveType.DOUBLE, vector.layout.type);
+        assertEquals(8, vector.layout.size());
+        assertEquals(0, vector.layout.getBaseOffset());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readOnlyMapsMustFitTheFile() throws IOException {
+        final File file = File.createTempFile("offheap", ".bin");
+        file.deleteOnExit();
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[16 + 2 * 8]);
+            OffHeapDVector.map(raf.getChannel(), FileChannel.MapMode.READ_ONLY, 16, 3, ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Trains on the bundled data sets with the features at full precision, as
+ * floats and quantized, and bounds how far the quality and the parameters of
+ * every model are off from the full precision one.
+ */
+public class QuantizedDVectorTest {
+
+    private static final DVectorFrameFile.ColumnType[] TYPES = {
+            DVectorFrameFile.ColumnType.FLOAT32, DVectorFrameFile.ColumnType.INT16, DVectorFrameFile.ColumnType.INT8};
+
+    private static final String[] IRIS_FIELDS = {"sepal-length", "sepal-width", "petal-length", "petal-width", "label"};
+
+    private static final int[] IRIS_X = {0, 1, 2, 3};
+
+    private static final String[] WINE_FIELDS = {"cultivar", "alcohol", "malic-acid", "ash", "alcalinity", "magnesium", "phenols",
+            "flavanoids", "nonflavanoid-phenols", "proanthocyanins", "color-intensity", "hue", "od280-od315", "proline"};
+
+    private static final int[] WINE_X = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+
+    /** The data is next to the module directory the tests run in. */
+    private static String dataFile(final String path) {
+        final File file = new File(path);
+        return file.exists() ? file.getPath() : new File("../" + path).getPath();
+    }
+
+    private static DVectorFrame read(final String csvFile, final String[] fields, final String target, final DVectorFrameFile.ColumnType type) {
+        final CSVDataReader.Options options = new CSVDataReader.Options();
+        options.setFields(fields);
+        options.setColumnType(type);
+        options.setColumnType(target, DVectorFrameFile.ColumnType.FLOAT64);
+        options.setCache(false);
+        return CSVDataReader.readCSV(dataFile(csvFile), options);
+    }
+
+    private static double maxDifference(final double[] a, final double[] b) {
+        double max = 0.0;
+        for (int i = 0; i < a.length; ++i)
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        return max;
+    }
+
+    /** The bound of a FLOAT32, INT16 and INT8 model, in the order of TYPES. */
+    private static double bound(final DVectorFrameFile.ColumnType type, final double[] bounds) {
+        return bounds[type.ordinal() - 1];
+    }
+
+    // ---------------------------------------------------
+
+    /** The mean squared loss of the least squares regression of the iris class on the measurements. */
+    private static double irisLoss(final DVectorFrame frame, final DVector params) {
+        final int numSamples = frame.getColumn(0).size();
+        final DVector p = new SGD.SGDRegressor().predict(params, frame, IRIS_X, numSamples);
+        final SGD.SquaredLossFunction lossFunction = new SGD.SquaredLossFunction();
+        double loss = 0.0;
+        for (int i = 0; i < numSamples; ++i)
+            loss += lossFunction.loss(p.elements[i], frame.getVec(4).elements[i]);
+        return loss / numSamples;
+    }
+
+    private static DVector fitIris(final DVectorFrame frame) {
+        return new SGD.SGDRegressor().fit(new DVector(IRIS_X.length + 1), frame, IRIS_X, IRIS_X.length, frame.getColumn(0).size());
+    }
+
+    @Test
+    public void irisRegressionsStayCloseToFullPrecision() {
+        final DVectorFrame full = read("ML_Data/iris/iris.data", IRIS_FIELDS, "label", DVectorFrameFile.ColumnType.FLOAT64);
+        final DVector fullParams = fitIris(full);
+        final double fullLoss = irisLoss(full, fullParams);
+        for (final DVectorFrameFile.ColumnType type : TYPES) {
+            final DVectorFrame frame = read("ML_Data/iris/iris.data", IRIS_FIELDS, "label", type);
+            final DVector params = fitIris(frame);
+            assertTrue(type.toString(), Math.abs(irisLoss(frame, params) - fullLoss) < bound(type, new double[] {1e-7, 1e-5, 1e-3}));
+            assertTrue(type.toString(), maxDifference(fullParams.elements, params.elements) < bound(type, new double[] {1e-6, 1e-4, 2e-2}));
+        }
+    }
+
+    // ---------------------------------------------------
+
+    /** The share of wines whose first cultivar or not is predicted right. */
+    private static double wineAccuracy(final DVectorFrame frame, final DVector params) {
+        final int numSamples = frame.getColumn(0).size();
+        final DVector decision = new SGD.SGDClassifier().predict(params, frame, WINE_X, numSamples);
+        int correct = 0;
+        for (int i = 0; i < numSamples; ++i)
+            if (decision.elements[i] * frame.getVec(0).elements[i] > 0.0)
+                ++correct;
+        return (double) correct / numSamples;
+    }
+
+    /** Trains the first cultivar against the others, on thirteen measurements of very different ranges. */
+    private static DVector fitWine(final DVectorFrame frame) {
+        final int numSamples = frame.getColumn(0).size();
+        final DVector first = new DVector(numSamples);
+        for (int i = 0; i < numSamples; ++i)
+            first.elements[i] = frame.getVec(0).elements[i] == 1.0 ? 1.0 : -1.0;
+        frame.setVec(0, first);
+        // Adam's per-parameter steps cope with the ranges, plain SGD barely moves from the majority class.
+        final SGD.SGDClassifier classifier = new SGD.SGDClassifier();
+        classifier.setOptimizer(SGDOptimizers.Method.ADAM);
+        classifier.setNumIterations(100);
+        return classifier.fit(new DVector(WINE_X.length + 1), frame, WINE_X, 0, numSamples);
+    }
+
+    @Test
+    public void wineClassifiersStayCloseToFullPrecision() {
+        final DVectorFrame full = read("ML_Data/wine/wine.data", WINE_FIELDS, "cultivar", DVectorFrameFile.ColumnType.FLOAT64);
+        final DVector fullParams = fitWine(full);
+        final double fullAccuracy = wineAccuracy(full, fullParams);
+        assertTrue(fullAccuracy > 0.95);
+        for (final DVectorFrameFile.ColumnType type : TYPES) {
+            final DVectorFrame frame = read("ML_Data/wine/wine.data", WINE_FIELDS, "cultivar", type);
+            final DVector params = fitWine(frame);
+            // One wine of 178 may flip.
+            assertTrue(type.toString(), Math.abs(wineAccuracy(frame, params) - fullAccuracy) < 0.01);
+            assertTrue(type.toString(), maxDifference(fullParams.elements, params.elements) < bound(type, new double[] {1e-6, 1e-4, 2e-1}));
+        }
+    }
+
+    // ---------------------------------------------------
+
+    @Test
+    public void codesAreOffByAtMostHalfTheScale() {
+        final Random random = new Random(7);
+        final DVector values = new DVector(1000);
+        for (int i = 0; i < values.elements.length; ++i)
+            values.elements[i] = 1000.0 + random.nextGaussian();
+        for (final int bits : new int[] {8, 16}) {
+            final QuantizedDVector quantized = QuantizedDVector.quantize(values, bits);
+            assertEquals(values.elements.length, quantized.size());
+            for (int i = 0; i < values.elements.length; ++i)
+                assertEquals(values.elements[i], quantized.get(i), quantized.scale / 2 * (1 + 1e-9));
+        }
+    }
+}
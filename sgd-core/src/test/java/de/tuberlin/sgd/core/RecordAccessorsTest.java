@@ -0,0 +1,40 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RecordAccessorsTest {
+
+    /** Reads a record of n doubles k + 0.5 with the row reader of its fields. */
+    private static RecordAccessors.DoubleRowReader readRecord(final int n) {
+        Types.TypeInfoBuilder fields = Types.TypeInfoBuilder.newType();
+        for (int k = 0; k < n; ++k)
+            fields = fields.add(Types.PrimitiveType.DOUBLE);
+        final RecordBuffer records = RecordBuffer.allocate(fields.build(), 1);
+        final double[] expected = new double[n];
+        for (int k = 0; k < n; ++k) {
+            expected[k] = k + 0.5;
+            records.putDouble(0, records.getFieldOffset(new int[] {k}), expected[k]);
+        }
+        final RecordAccessors.DoubleRowReader reader = RecordAccessors.doubleRowReader(records.type, new int[0]);
+        final double[] out = new double[n];
+        records.read(0, reader, out);
+        assertEquals(n, reader.getNumberOfFields());
+        assertArrayEquals(expected, out, 0.0);
+        return reader;
+    }
+
+    @Test
+    public void compoundsUpToTheCapAreUnrolled() {
+        final RecordAccessors.DoubleRowReader reader = readRecord(RecordAccessors.MAX_UNROLLED_FIELDS);
+        assertEquals("de.tuberlin.sgd.core.generated", reader.getClass().getPackage().getName());
+    }
+
+    @Test
+    public void largerCompoundsAreReadByALoop() {
+        final RecordAccessors.DoubleRowReader reader = readRecord(RecordAccessors.MAX_UNROLLED_FIELDS + 1);
+        assertEquals("LoopDoubleRowReader", reader.getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,156 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RecordBufferTest {
+
+    private static final int NUM_RECORDS = 100;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** double, float, [double, short], int, long: 34 bytes, so most fields are unaligned. */
+    private static Types.ITypeInformation sample() {
+        return Types.TypeInfoBuilder.newType()
+                .add(Types.PrimitiveType.DOUBLE)
+                .add(Types.PrimitiveType.FLOAT)
+                .open()
+                    .add(Types.PrimitiveType.DOUBLE)
+                    .add(Types.PrimitiveType.SHORT)
+                .close()
+                .add(Types.PrimitiveType.INT)
+                .add(Types.PrimitiveType.LONG)
+                .build();
+    }
+
+    /** Fills every field of record i with a value derived from i, by offset. */
+    private static void fill(final RecordBuffer records) {
+        for (int i = 0; i < records.getNumberOfRecords(); ++i) {
+            records.putDouble(i, 0, i + 0.5);
+            records.putFloat(i, 8, i - 0.25f);
+            records.putDouble(i, 12, -i * 1e10);
+            records.putShort(i, 20, (short) (i - 50));
+            records.putInt(i, 22, i * 100000);
+            records.putLong(i, 26, i * 1000000000000L);
+        }
+    }
+
+    private static void assertFilled(final RecordBuffer records) {
+        for (int i = 0; i < records.getNumberOfRecords(); ++i) {
+            assertEquals(i + 0.5, records.getDouble(i, new int[] {0}), 0.0);
+            assertEquals(i - 0.25f, records.getFloat(i, new int[] {1}), 0.0f);
+            assertEquals(-i * 1e10, records.getDouble(i, new int[] {2, 0}), 0.0);
+            assertEquals((short) (i - 50), records.getShort(i, new int[] {2, 1}));
+            assertEquals(i * 100000, records.getInt(i, new int[] {3}));
+            assertEquals(i * 1000000000000L, records.getLong(i, new int[] {4}));
+        }
+    }
+
+    // ---------------------------------------------------
+
+    @Test
+    public void fieldsStartWhereTheFieldsBeforeThemEnd() {
+        final Types.ITypeInformation type = sample();
+        // The root type starts at 0, not at its size.
+        assertEquals(0, type.getBaseOffset());
+        assertEquals(34, type.size());
+        // The offset of a field is its start, not its end.
+        final int[] starts = {0, 8, 12, 22, 26};
+        for (int pos = 0; pos < starts.length; ++pos) {
+            assertEquals(starts[pos], type.getFieldOffset(pos));
+            assertEquals(starts[pos], type.getField(pos).getBaseOffset());
+            assertEquals(starts[pos], type.getFieldOffset(new int[] {pos}));
+        }
+        // The offsets of a nested compound are relative to the record.
+        final Types.ITypeInformation nested = type.getField(2);
+        assertEquals(12, nested.getFieldOffset(0));
+        assertEquals(20, nested.getFieldOffset(1));
+        assertEquals(20, type.getFieldOffset(new int[] {2, 1}));
+    }
+
+    @Test
+    public void fieldsReadWhatWasWritten() {
+        final RecordBuffer records = RecordBuffer.allocate(sample(), NUM_RECORDS);
+        assertEquals(34, records.getRecordSize());
+        assertEquals(20, records.getFieldOffset(new int[] {2, 1}));
+        assertEquals(Types.PrimitiveType.SHORT, records.getFieldType(new int[] {2, 1}));
+        fill(records);
+        assertFilled(records);
+
+        records.putLong(7, new int[] {4}, -1L);
+        records.putShort(7, new int[] {2, 1}, Short.MIN_VALUE);
+        // Neighbouring fields and records are left alone.
+        assertEquals(-1L, records.getLong(7, 26));
+        assertEquals(Short.MIN_VALUE, records.getShort(7, 20));
+        assertEquals(700000, records.getInt(7, 22));
+        assertEquals(8.5, records.getDouble(8, 0), 0.0);
+    }
+
+    @Test
+    public void generatedAccessorsReadTheSameFields() {
+        final RecordBuffer records = RecordBuffer.allocate(sample(), NUM_RECORDS);
+        fill(records);
+        final RecordAccessors.FloatField weight = RecordAccessors.floatField(records.type, new int[] {1});
+        final RecordAccessors.ShortField code = RecordAccessors.shortField(records.type, new int[] {2, 1});
+        final RecordAccessors.LongField id = RecordAccessors.longField(records.type, new int[] {4});
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            assertEquals(records.getFloat(i, 8), records.get(i, weight), 0.0f);
+            assertEquals(records.getShort(i, 20), records.get(i, code));
+            assertEquals(records.getLong(i, 26), records.get(i, id));
+        }
+    }
+
+    @Test
+    public void mappedRecordsAreStoredInTheFile() throws IOException {
+        final String file = folder.newFile().getPath();
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            fill(RecordBuffer.map(raf.getChannel(), FileChannel.MapMode.READ_WRITE, 16, sample(), NUM_RECORDS));
+            assertEquals(16 + 34 * NUM_RECORDS, raf.length());
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            assertFilled(RecordBuffer.map(raf.getChannel(), FileChannel.MapMode.READ_ONLY, 16, sample(), NUM_RECORDS));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void selectorsAreCheckedAgainstTheFieldType() {
+        RecordBuffer.allocate(sample(), 1).getFloat(0, new int[] {0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void selectorsMustSelectAPrimitive() {
+        RecordBuffer.allocate(sample(), 1).getDouble(0, new int[] {2});
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void recordsAreCheckedAgainstTheNumberOfRecords() {
+        RecordBuffer.allocate(sample(), NUM_RECORDS).getDouble(NUM_RECORDS, 0);
+    }
+
+    @Test
+    public void rowReadersReadNestedDoubles() {
+        final RecordBuffer records = RecordBuffer.allocate(Types.TypeInfoBuilder.newType()
+                .add(Types.PrimitiveType.FLOAT)
+                .open()
+                    .add(Types.PrimitiveType.DOUBLE)
+                    .add(Types.PrimitiveType.DOUBLE)
+                    .add(Types.PrimitiveType.DOUBLE)
+                .close()
+                .build(), 2);
+        for (int j = 0; j < 3; ++j)
+            records.putDouble(1, new int[] {1, j}, j - 1.5);
+        final RecordAccessors.DoubleRowReader reader = RecordAccessors.doubleRowReader(records.type, new int[] {1});
+        final double[] x = new double[reader.getNumberOfFields()];
+        records.read(1, reader, x);
+        assertArrayEquals(new double[] {-1.5, -0.5, 0.5}, x, 0.0);
+    }
+}
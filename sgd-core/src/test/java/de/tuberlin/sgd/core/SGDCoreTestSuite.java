@@ -0,0 +1,20 @@
+package de.tuberlin.sgd.core;
+
+import de.tuberlin.sgd.core.old.v1.StochasticGradientDescentTest;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+        CSVDataReaderTest.class,
+        DVectorFrameFileTest.class,
+        OffHeapDVectorTest.class,
+        QuantizedDVectorTest.class,
+        RecordAccessorsTest.class,
+        RecordBufferTest.class,
+        SGDOptimizersTest.class,
+        SGDTest.class,
+        StochasticGradientDescentTest.class
+})
+public class SGDCoreTestSuite {
+}
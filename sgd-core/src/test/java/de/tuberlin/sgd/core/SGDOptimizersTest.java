@@ -0,0 +1,152 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SGDOptimizersTest {
+
+    /** n rows of a single feature x with target y. */
+    private static SGDKernels.Columns constantColumns(final int n, final double x, final double y) {
+        final double[][] X = new double[1][n];
+        final double[] Y = new double[n];
+        for (int i = 0; i < n; ++i) {
+            X[0][i] = x;
+            Y[i] = y;
+        }
+        return new SGDKernels.Columns(X, Y, n);
+    }
+
+    @Test
+    public void hingeRowsWithoutLossTakeTheL2Step() {
+        // Every row has a margin of 10.5, far above the threshold of 1.
+        final SGDKernels.Columns data = constantColumns(4, 1.0, 1.0);
+        final double[] w = {0.5, 10.0};
+        final double loss = SGDKernels.forLoss(new SGD.HingeLossFunction()).epoch(w, data, 0, 4,
+                SGD.LearningRateSchedule.constant(0.1), new SGDOptimizers.RegularizedOptimizer(2, 0.0, 0.1));
+
+        assertEquals(0.0, loss, 0.0);
+        assertEquals(0.5, w[0], 0.0);
+        assertEquals(10.0 * Math.pow(0.99, 4), w[1], 1e-12);
+    }
+
+    @Test
+    public void epsilonInsensitiveRowsWithoutLossTakeTheL1Step() {
+        // Every row is predicted within epsilon while the weight shrinks.
+        final SGDKernels.Columns data = constantColumns(4, 1.0, 10.5);
+        final double[] w = {0.5, 10.0};
+        final double loss = SGDKernels.forLoss(new SGD.EpsilonInsensitiveLossFunction(1.0)).epoch(w, data, 0, 4,
+                SGD.LearningRateSchedule.constant(0.1), new SGDOptimizers.RegularizedOptimizer(2, 0.5, 0.0));
+
+        assertEquals(0.0, loss, 0.0);
+        assertEquals(0.5, w[0], 0.0);
+        assertEquals(10.0 - 4 * 0.05, w[1], 1e-12);
+    }
+
+    @Test
+    public void skipIsAnUpdateWithoutGradient() {
+        final double[][] X = {{2.0, -3.0}, {0.5, 1.5}};
+        final SGDOptimizers.Optimizer skipped = new SGDOptimizers.RegularizedOptimizer(3, 0.05, 0.2);
+        final SGDOptimizers.Optimizer updated = skipped.copy();
+        final double[] w1 = {1.0, 0.3, -0.2};
+        final double[] w2 = w1.clone();
+        for (int step = 0; step < 10; ++step) {
+            skipped.skip(w1, 0.1);
+            skipped.flush(w1);
+            updated.update(w2, X, step % 2, 0.0, 0.1);
+            assertArrayEquals(w2, w1, 0.0);
+        }
+    }
+
+    @Test
+    public void skippedStepsAreDeferredToTheNextUpdate() {
+        final double[][] X = {{2.0}};
+        // L2 and L1 alone, together the deferred L1 penalty is not decayed by the L2 steps after it.
+        for (final double[] penalties : new double[][] {{0.0, 0.2}, {0.01, 0.0}}) {
+            final SGDOptimizers.Optimizer lazy = new SGDOptimizers.RegularizedOptimizer(2, penalties[0], penalties[1]);
+            final SGDOptimizers.Optimizer eager = lazy.copy();
+            final double[] w1 = {1.0, 0.5};
+            final double[] w2 = w1.clone();
+            for (int step = 0; step < 5; ++step) {
+                lazy.skip(w1, 0.1);
+                eager.skip(w2, 0.1);
+                eager.flush(w2);
+            }
+            // Nothing is touched, the decay is in the scale.
+            assertArrayEquals(new double[] {1.0, 0.5}, w1, 0.0);
+            assertEquals(Math.pow(1.0 - 0.1 * penalties[1], 5), lazy.getScale(), 1e-15);
+
+            // The update folds all five steps and the L1 penalty they were behind on.
+            lazy.update(w1, X, 0, 0.3, 0.1);
+            eager.update(w2, X, 0, 0.3, 0.1);
+            assertEquals(1.0, lazy.getScale(), 0.0);
+            assertArrayEquals(w2, w1, 1e-15);
+        }
+    }
+
+    @Test
+    public void smallScalesAreFoldedIntoTheWeights() {
+        final SGDOptimizers.Optimizer optimizer = new SGDOptimizers.RegularizedOptimizer(2, 0.0, 5.0);
+        final double[] w = {1.0, 1e300};
+        double expected = 1e300;
+        // Every step halves the weight, an unfolded scale would underflow to 0 after 1075 steps.
+        for (int step = 0; step < 1100; ++step) {
+            optimizer.skip(w, 0.1);
+            expected *= 0.5;
+            assertTrue(optimizer.getScale() >= SGDOptimizers.RegularizedOptimizer.MIN_SCALE);
+        }
+        optimizer.flush(w);
+        assertEquals(1.0, w[0], 0.0);
+        assertTrue(expected > 0.0);
+        assertEquals(expected, w[1], 0.0);
+    }
+
+    @Test
+    public void replacedParamsGetTheL1PenaltyFromThenOn() {
+        final SGDOptimizers.Optimizer optimizer = new SGDOptimizers.RegularizedOptimizer(2, 1.0, 0.0);
+        final double[] w = {0.0, 1.0};
+        // Clipped at zero after 10 steps, the weight then falls behind on 5 more.
+        for (int step = 0; step < 15; ++step)
+            optimizer.skip(w, 0.1);
+        optimizer.flush(w);
+        assertEquals(0.0, w[1], 0.0);
+
+        // Model averaging puts in a new weight, it gets one step of penalty, not 6.
+        w[1] = 1.0;
+        optimizer.paramsReplaced();
+        optimizer.skip(w, 0.1);
+        optimizer.flush(w);
+        assertEquals(0.9, w[1], 1e-12);
+    }
+
+    @Test
+    public void averageCountsTheIteratesOfRowsWithoutLoss() {
+        final double[][] X = {{2.0, -1.0, 0.5, 3.0, -2.0, 1.0, 0.2, -0.7, 1.5, -3.0}};
+        final double[] Y = {1.0, -1.0, 1.0, 1.0, -1.0, -1.0, 1.0, -1.0, 1.0, -1.0};
+        final SGDKernels.Columns data = new SGDKernels.Columns(X, Y, Y.length);
+        final SGDKernels.Kernel kernel = SGDKernels.forLoss(new SGD.HingeLossFunction());
+
+        // The explicit average of the iterate after every sample, skipped or not.
+        final double[] iterate = {0.0, 0.0};
+        final double[] sum = new double[2];
+        int skipped = 0;
+        for (int i = 0; i < Y.length; ++i) {
+            if (kernel.epoch(iterate, data, i, i + 1, SGD.LearningRateSchedule.constant(0.5), new SGDOptimizers.PlainOptimizer()) == 0.0)
+                ++skipped;
+            for (int m = 0; m < sum.length; ++m)
+                sum[m] += iterate[m];
+        }
+        assertTrue(skipped > 0 && skipped < Y.length);
+
+        final SGDOptimizers.AveragedOptimizer optimizer = new SGDOptimizers.AveragedOptimizer(2);
+        final double[] w = {0.0, 0.0};
+        kernel.epoch(w, data, 0, Y.length, SGD.LearningRateSchedule.constant(0.5), optimizer);
+        assertArrayEquals(iterate, w, 1e-12);
+        assertEquals(Y.length, optimizer.getNumSteps());
+
+        optimizer.average(w);
+        assertArrayEquals(new double[] {sum[0] / Y.length, sum[1] / Y.length}, w, 1e-12);
+    }
+}
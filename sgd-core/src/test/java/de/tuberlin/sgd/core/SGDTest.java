@@ -0,0 +1,228 @@
+package de.tuberlin.sgd.core;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fits on the iris data set, sorted by label, of the four measurements and
+ * the label 1, 2 or 3. All-zero parameters have a mean squared loss of 4.67.
+ */
+public class SGDTest {
+
+    private static final String[] FIELDS = {"sepal-length", "sepal-width", "petal-length", "petal-width", "label"};
+
+    private static final int[] X_INDICES = {0, 1, 2, 3};
+
+    private static String irisFile;
+
+    private static DVectorFrame iris;
+
+    private static int numSamples;
+
+    /** The parameters of the default fit. */
+    private static DVector defaultParams;
+
+    private static DVectorFrame read(final DVectorFrameFile.ColumnType featureType) {
+        final CSVDataReader.Options options = new CSVDataReader.Options();
+        options.setFields(FIELDS);
+        options.setColumnType(featureType);
+        options.setColumnType(FIELDS[4], DVectorFrameFile.ColumnType.FLOAT64);
+        options.setCache(false);
+        return CSVDataReader.readCSV(irisFile, options);
+    }
+
+    @BeforeClass
+    public static void readIris() {
+        // The tests run in the module directory, the data is next to it.
+        final File file = new File("ML_Data/iris/iris.data");
+        irisFile = file.exists() ? file.getPath() : new File("../ML_Data/iris/iris.data").getPath();
+        iris = read(DVectorFrameFile.ColumnType.FLOAT64);
+        numSamples = iris.getVec(4).elements.length;
+        defaultParams = fit(new SGD.SGDRegressor(), iris);
+    }
+
+    private static DVector fit(final SGD.SGDRegressor regressor, final DVectorFrame frame) {
+        final DVector params = new DVector(5);
+        regressor.fit(params, frame, X_INDICES, 4, numSamples);
+        return params;
+    }
+
+    private static double squaredLoss(final DVector params) {
+        final SGD.SquaredLossFunction lossFunction = new SGD.SquaredLossFunction();
+        final DVector p = new SGD.SGDRegressor().predict(params, iris, X_INDICES, numSamples);
+        double loss = 0.0;
+        for (int i = 0; i < numSamples; ++i)
+            loss += lossFunction.loss(p.elements[i], iris.getVec(4).elements[i]);
+        return loss / numSamples;
+    }
+
+    /** The sum of the absolute weights, without the bias. */
+    private static double l1Norm(final DVector params) {
+        double norm = 0.0;
+        for (int m = 1; m < params.elements.length; ++m)
+            norm += Math.abs(params.elements[m]);
+        return norm;
+    }
+
+    /** The iris measurements labelled +1 for setosa and -1 for the other species. */
+    private static DVectorFrame setosa() {
+        final DVectorFrame frame = new DVectorFrame(new String[] {"sepal-length", "sepal-width", "petal-length", "petal-width", "setosa"});
+        final DVector setosa = new DVector(numSamples);
+        for (int i = 0; i < numSamples; ++i)
+            setosa.elements[i] = iris.getVec(4).elements[i] == 1.0 ? 1.0 : -1.0;
+        for (int j = 0; j < 4; ++j)
+            frame.setVec(j, iris.getVec(j));
+        frame.setVec(4, setosa);
+        return frame;
+    }
+
+    // ---------------------------------------------------
+
+    @Test
+    public void defaultFitRunsAllEpochs() {
+        assertArrayEquals(new double[] {1.8691265148018195, -0.14005397695005628, -0.16116215702398237, 0.3280939935422518, 0.38345179178280936},
+                defaultParams.elements, 1e-9);
+        assertTrue(squaredLoss(defaultParams) < 0.06);
+    }
+
+    @Test
+    public void toleranceStopsEarly() {
+        final SGD.SGDRegressor regressor = new SGD.SGDRegressor();
+        regressor.setTolerance(1e-3);
+        final DVector params = fit(regressor, iris);
+        assertTrue(regressor.getConvergenceTracker().getNumEpochs() < 100);
+        assertTrue(squaredLoss(params) < 0.1);
+    }
+
+    @Test
+    public void learningRateSchedulesConverge() {
+        // OPTIMAL is left out, its heuristic start rate is meant for regularized classification losses.
+        for (final SGD.LearningRate learningRate : new SGD.LearningRate[] {SGD.LearningRate.CONSTANT, SGD.LearningRate.INVERSE_SCALING, SGD.LearningRate.ADAPTIVE}) {
+            final SGD.SGDRegressor regressor = new SGD.SGDRegressor();
+            regressor.setLearningRate(learningRate);
+            regressor.setAlpha(0.02);
+            regressor.setLambda(0.1);
+            regressor.setTolerance(1e-5);
+            assertTrue(learningRate.toString(), squaredLoss(fit(regressor, iris)) < 0.25);
+        }
+    }
+
+    @Test
+    public void optimizersConverge() {
+        for (final SGDOptimizers.Method method : SGDOptimizers.Method.values()) {
+            final SGD.SGDRegressor regressor = new SGD.SGDRegressor();
+            regressor.setOptimizer(method);
+            regressor.setNumIterations(200);
+            regressor.setTolerance(1e-5);
+            assertTrue(method.toString(), squaredLoss(fit(regressor, iris)) < 0.5);
+        }
+    }
+
+    @Test
+    public void averagingHelpsAfterTwoEpochs() {
+        final double[] losses = new double[2];
+        for (final boolean average : new boolean[] {false, true}) {
+            final SGD.SGDRegressor regressor = new SGD.SGDRegressor();
+            regressor.setAverage(average);
+            regressor.setAlpha(0.02);
+            regressor.setNumIterations(2);
+            losses[average ? 1 : 0] = squaredLoss(fit(regressor, iris));
+        }
+        assertTrue(losses[1] < losses[0]);
+    }
+
+    @Test
+    public void penaltiesShrinkTheWeights() {
+        for (final SGD.Penalty penalty : new SGD.Penalty[] {SGD.Penalty.L2, SGD.Penalty.L1, SGD.Penalty.ELASTICNET}) {
+            final SGD.SGDRegressor regressor = new SGD.SGDRegressor();
+            regressor.setPenalty(penalty);
+            regressor.setLambda(0.01);
+            final DVector params = fit(regressor, iris);
+            assertTrue(penalty.toString(), l1Norm(params) < l1Norm(defaultParams));
+            assertTrue(penalty.toString(), squaredLoss(params) < 0.1);
+        }
+    }
+
+    @Test
+    public void shufflingHelpsOnSortedRows() {
+        for (final SGD.Shuffle shuffle : new SGD.Shuffle[] {SGD.Shuffle.ROWS, SGD.Shuffle.BLOCKS}) {
+            final SGD.SGDRegressor regressor = new SGD.SGDRegressor();
+            regressor.setShuffle(shuffle);
+            regressor.setShuffleBlockSize(10);
+            regressor.setSeed(7);
+            assertTrue(shuffle.toString(), squaredLoss(fit(regressor, iris)) < squaredLoss(defaultParams));
+        }
+    }
+
+    @Test
+    public void classifiersSeparateSetosa() {
+        final DVectorFrame frame = setosa();
+        final DVector setosa = frame.getVec(4);
+
+        for (final SGD.ConvexLossFunction lossFunction : new SGD.ConvexLossFunction[] {new SGD.HingeLossFunction(), new SGD.LogLossFunction()}) {
+            final DVector params = new DVector(5);
+            final SGD.SGDClassifier classifier = new SGD.SGDClassifier();
+            classifier.setLossFunction(lossFunction);
+            classifier.fit(params, frame, X_INDICES, 4, numSamples);
+            final DVector decision = classifier.predict(params, frame, X_INDICES, numSamples);
+            for (int i = 0; i < numSamples; ++i)
+                assertTrue(lossFunction.getClass().getSimpleName() + " row " + i, decision.elements[i] * setosa.elements[i] > 0.0);
+        }
+    }
+
+    @Test
+    public void compiledKernelsGiveTheSameParams() {
+        final DVectorFrame setosa = setosa();
+        final SGD.ConvexLossFunction[] lossFunctions = {
+                new SGD.SquaredLossFunction(), new SGD.HuberLossFunction(), new SGD.EpsilonInsensitiveLossFunction(),
+                new SGD.HingeLossFunction(), new SGD.LogLossFunction(), new SGD.ExponentialLossFunction()};
+        for (final SGD.ConvexLossFunction lossFunction : lossFunctions) {
+            final String name = lossFunction.getClass().getSimpleName();
+            assertNotNull(name, SGDKernelCompiler.compile(lossFunction, SGDOptimizers.PLAIN, 4));
+            // The classification losses are trained on the setosa labels.
+            final boolean classifies = lossFunction instanceof SGD.HingeLossFunction
+                    || lossFunction instanceof SGD.LogLossFunction
+                    || lossFunction instanceof SGD.ExponentialLossFunction;
+            final double[][] params = new double[2][];
+            for (final boolean compileKernels : new boolean[] {false, true}) {
+                final SGD.SGDRegressor regressor = classifies ? new SGD.SGDClassifier() : new SGD.SGDRegressor();
+                regressor.setLossFunction(lossFunction);
+                regressor.setCompileKernels(compileKernels);
+                params[compileKernels ? 1 : 0] = fit(regressor, classifies ? setosa : iris).elements;
+            }
+            assertArrayEquals(name, params[0], params[1], 0.0);
+        }
+    }
+
+    @Test
+    public void parallelFitsGetCloseToTheSingleThreadedOne() {
+        final SGD.SGDRegressor hogwild = new SGD.SGDRegressor();
+        hogwild.setNumThreads(4);
+        assertTrue(squaredLoss(fit(hogwild, iris)) < 0.1);
+
+        final SGD.ParallelSGDRegressor averaging = new SGD.ParallelSGDRegressor();
+        averaging.setNumPartitions(4);
+        assertTrue(squaredLoss(fit(averaging, iris)) < 0.1);
+    }
+
+    @Test
+    public void offHeapColumnsGiveTheSameParams() {
+        final DVectorFrame offHeap = new DVectorFrame(FIELDS);
+        for (int c = 0; c < FIELDS.length; ++c)
+            offHeap.setColumn(c, OffHeapDVector.copyOf(iris.getVec(c)));
+        assertArrayEquals(defaultParams.elements, fit(new SGD.SGDRegressor(), offHeap).elements, 0.0);
+    }
+
+    @Test
+    public void floatFeaturesGiveCloseParams() {
+        final DVectorFrame floats = read(DVectorFrameFile.ColumnType.FLOAT32);
+        assertArrayEquals(defaultParams.elements, fit(new SGD.SGDRegressor(), floats).elements, 1e-6);
+    }
+}
@@ -0,0 +1,218 @@
+package de.tuberlin.sgd.core.old.v1;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Examples are double arrays of NUM_FEATURES feature values and the label, a
+ * feature value of 0 leaves the feature out of the example.
+ */
+public class StochasticGradientDescentTest {
+
+    private static final String PACKAGE = "de.tuberlin.sgd.core.old.v1";
+
+    private static final int NUM_FEATURES = 3;
+
+    private static final double LEARNING_RATE = 0.1;
+
+    private static StochasticGradientDescent learner(final StochasticGradientDescent._Parameters parameters) {
+        final StochasticGradientDescent learner = new StochasticGradientDescent("sgd", parameters);
+        learner.setExtractor(new Classifier("features") {
+
+            @Override
+            public FeatureVector classify(final Object o) {
+                final double[] example = (double[]) o;
+                final FeatureVector features = new FeatureVector();
+                for (int j = 0; j < NUM_FEATURES; ++j)
+                    if (example[j] != 0.0)
+                        features.addFeature(new RealFeature(PACKAGE, "x" + j, example[j]));
+                return features;
+            }
+        });
+        learner.setLabeler(new Classifier("label") {
+
+            @Override
+            public FeatureVector classify(final Object o) {
+                return new FeatureVector(new RealFeature(PACKAGE, "y", ((double[]) o)[NUM_FEATURES]));
+            }
+        });
+        return learner;
+    }
+
+    private static StochasticGradientDescent learner() {
+        final StochasticGradientDescent._Parameters parameters = new StochasticGradientDescent._Parameters();
+        parameters.learningRate = LEARNING_RATE;
+        return learner(parameters);
+    }
+
+    /** Examples with about half of the features each, so weights go untouched for a while. */
+    private static double[][] examples(final int n) {
+        final Random random = new Random(n);
+        final double[][] examples = new double[n][NUM_FEATURES + 1];
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < NUM_FEATURES; ++j)
+                if (random.nextBoolean())
+                    examples[i][j] = random.nextDouble() * 2.0 - 1.0;
+            examples[i][NUM_FEATURES] = 0.5 + examples[i][0] - 2.0 * examples[i][1] + 0.1 * random.nextGaussian();
+        }
+        return examples;
+    }
+
+    private static double score(final StochasticGradientDescent learner, final double[] example) {
+        return ((RealFeature) learner.classify(example).firstFeature()).getValue();
+    }
+
+    /** The weights of the features and the bias, read off by unit examples. */
+    private static double[] weights(final StochasticGradientDescent learner) {
+        final double bias = score(learner, new double[NUM_FEATURES + 1]);
+        final double[] weights = new double[NUM_FEATURES + 1];
+        for (int j = 0; j < NUM_FEATURES; ++j) {
+            final double[] unit = new double[NUM_FEATURES + 1];
+            unit[j] = 1.0;
+            weights[j] = score(learner, unit) - bias;
+        }
+        weights[NUM_FEATURES] = bias;
+        return weights;
+    }
+
+    /**
+     * The reference of learn on dense weights, the bias last: every step
+     * decays all weights, the L1 penalty is cumulative and only the weights
+     * of the features in the example receive what they are behind on.
+     */
+    private static final class DenseReference {
+
+        final double[] w = new double[NUM_FEATURES + 1];
+
+        final double[] applied = new double[NUM_FEATURES];
+
+        double total;
+
+        void learn(final double[] example, final double l2, final double l1) {
+            double p = w[NUM_FEATURES];
+            for (int j = 0; j < NUM_FEATURES; ++j)
+                p += w[j] * example[j];
+            final double multiplier = LEARNING_RATE * (example[NUM_FEATURES] - p);
+            for (int j = 0; j < NUM_FEATURES; ++j)
+                w[j] = Math.max(0, 1 - LEARNING_RATE * l2) * w[j] + multiplier * example[j];
+            w[NUM_FEATURES] += multiplier;
+            total += LEARNING_RATE * l1;
+            for (int j = 0; j < NUM_FEATURES; ++j) {
+                if (l1 == 0 || example[j] == 0.0)
+                    continue;
+                final double z = w[j];
+                if (z > 0)
+                    w[j] = Math.max(0, z - (total + applied[j]));
+                else if (z < 0)
+                    w[j] = Math.min(0, z + (total - applied[j]));
+                applied[j] += w[j] - z;
+            }
+        }
+    }
+
+    private static void assertWeightsEqual(final double[] expected, final double[] actual) {
+        for (int m = 0; m < expected.length; ++m)
+            assertEquals("weight " + m, expected[m], actual[m], 1e-12);
+    }
+
+    // ---------------------------------------------------
+
+    @Test
+    public void averagedLearnersClassifyWithTheAverageOfAllIterates() {
+        final double[][] examples = examples(200);
+        final double[] probe = {0.3, -0.7, 0.2, 0.0};
+        final StochasticGradientDescent plain = learner();
+        final StochasticGradientDescent averaged = learner();
+        averaged.setAveraged(true);
+
+        double sum = 0.0;
+        for (final double[] example : examples) {
+            plain.learn(example);
+            averaged.learn(example);
+            sum += score(plain, probe);
+        }
+        assertEquals(sum / examples.length, score(averaged, probe), 1e-12);
+    }
+
+    @Test
+    public void averagesStartWhenAveragingIsSet() {
+        final double[][] examples = examples(100);
+        final double[] probe = {0.3, -0.7, 0.2, 0.0};
+        final StochasticGradientDescent learner = learner();
+        for (int i = 0; i < 50; ++i)
+            learner.learn(examples[i]);
+        learner.setAveraged(true);
+        double sum = 0.0;
+        for (int i = 50; i < examples.length; ++i) {
+            final StochasticGradientDescent iterate = (StochasticGradientDescent) learner.clone();
+            iterate.setAveraged(false);
+            iterate.learn(examples[i]);
+            sum += score(iterate, probe);
+            learner.learn(examples[i]);
+        }
+        assertEquals(sum / 50, score(learner, probe), 1e-12);
+    }
+
+    @Test
+    public void theL2DecayIsAScaleOfAllWeights() {
+        final StochasticGradientDescent learner = learner();
+        // Every step halves the weights, so the scale is folded into them after 30 steps.
+        learner.setL2Penalty(5.0);
+        final DenseReference reference = new DenseReference();
+        for (final double[] example : examples(100)) {
+            learner.learn(example);
+            reference.learn(example, 5.0, 0.0);
+            assertWeightsEqual(reference.w, weights(learner));
+        }
+    }
+
+    @Test
+    public void theL1PenaltyIsTruncatedWhenAFeatureIsSeen() {
+        final StochasticGradientDescent learner = learner();
+        learner.setL1Penalty(0.05);
+        learner.setL2Penalty(0.01);
+        final DenseReference reference = new DenseReference();
+        for (final double[] example : examples(200)) {
+            learner.learn(example);
+            reference.learn(example, 0.01, 0.05);
+            assertWeightsEqual(reference.w, weights(learner));
+        }
+        // The penalty pushed the weight of the irrelevant feature to zero.
+        assertEquals(0.0, reference.w[2], 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void averagingRejectsAnL2Penalty() {
+        final StochasticGradientDescent learner = learner();
+        learner.setL2Penalty(0.1);
+        learner.setAveraged(true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void penaltiesRejectAveraging() {
+        final StochasticGradientDescent learner = learner();
+        learner.setAveraged(true);
+        learner.setL1Penalty(0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parametersMustNotCombineAveragingAndPenalties() {
+        final StochasticGradientDescent._Parameters parameters = new StochasticGradientDescent._Parameters();
+        parameters.averaged = true;
+        parameters.l2Penalty = 0.1;
+        learner(parameters);
+    }
+
+    @Test
+    public void averagingAllowsZeroPenalties() {
+        final StochasticGradientDescent learner = learner();
+        learner.setAveraged(true);
+        learner.setL2Penalty(0.0);
+        learner.setL1Penalty(0.0);
+        assertTrue(learner.getAveraged());
+    }
+}